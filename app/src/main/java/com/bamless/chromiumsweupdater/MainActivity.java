@@ -1,60 +1,113 @@
 package com.bamless.chromiumsweupdater;
 
-import android.Manifest;
-import android.app.AlarmManager;
-import android.app.PendingIntent;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
+import android.content.ServiceConnection;
 import android.graphics.Paint;
+import android.os.Build;
 import android.os.Bundle;
-import android.os.Environment;
-import android.support.annotation.NonNull;
-import android.support.v4.app.ActivityCompat;
-import android.support.v4.content.ContextCompat;
+import android.os.IBinder;
+import android.support.v4.os.TraceCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SwitchCompat;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.animation.Animation;
+import android.widget.CompoundButton;
 import android.widget.TextView;
-import android.widget.Toast;
 
 import com.bamless.chromiumsweupdater.models.BuildDate;
+import com.bamless.chromiumsweupdater.models.MetricsStore;
+import com.bamless.chromiumsweupdater.models.UpdateStateStore;
 import com.bamless.chromiumsweupdater.network.ChromiumUpdater;
-import com.bamless.chromiumsweupdater.receivers.AlarmReceiver;
-import com.bamless.chromiumsweupdater.utils.Constants;
+import com.bamless.chromiumsweupdater.network.ProgressSampler;
+import com.bamless.chromiumsweupdater.services.DownloadService;
+import com.bamless.chromiumsweupdater.utils.UpdateScheduler;
 import com.bamless.chromiumsweupdater.views.AnimatedImageButton;
-import com.bamless.chromiumsweupdater.views.ProgressNotification;
-
-import java.util.Calendar;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
+import butterknife.OnCheckedChanged;
 import butterknife.OnClick;
+import butterknife.OnLongClick;
 
+/**
+ * The only screen of the app. To get the first frame on screen as soon as possible onCreate only
+ * inflates the layout: the update state is loaded on a background thread once the first frame is
+ * drawn, and only then the UI is filled in and the update check started. The startup is marked
+ * with trace sections, and {@link #reportFullyDrawn()} is called once the state is shown.
+ */
 public class MainActivity extends AppCompatActivity {
     public final static String TAG = MainActivity.class.getSimpleName();
 
-    /**Permission request code*/
-    public final static int REQUEST_EXTERNAL_WRITE = 1;
-    /**Argument key. Boolean indicating whether to reset the {@link AlarmReceiver}*/
+    /**Names of the startup trace sections*/
+    private final static String TRACE_CREATE = "MainActivity.onCreate";
+    private final static String TRACE_LOAD_STATE = "MainActivity.loadState";
+    private final static String TRACE_SHOW_STATE = "MainActivity.showState";
+
+    /**Argument key. Boolean indicating whether to make sure the update checks are scheduled*/
     public final static String ARG_START_ALARM_ON_OPEN = "startAlarmOnOpen";
 
-    /**The progressNotification used to show download progress*/
-    private ProgressNotification progressNotification;
-    /**The ChromiumUupdater used to check and update Chromium SWE*/
+    /**The ChromiumUupdater used to check and update Chromium SWE. Null until the state is loaded*/
     private ChromiumUpdater cu;
+    /**Whether the activity was destroyed, e.g. before the state was loaded*/
+    private boolean destroyed;
+    /**Refreshes the status text when the build dates or the channel change*/
+    private UpdateStateStore.OnStateChangeListener stateListener = new UpdateStateStore.OnStateChangeListener() {
+        @Override
+        public void onStateChanged(UpdateStateStore store) {
+            updateStatusText();
+        }
+    };
+    /**The service running the download, null if not bound*/
+    private DownloadService downloadService;
+    /**Restores the UI of a download started before the activity was created and tracks its end*/
+    private DownloadService.DownloadListener downloadListener = new DownloadService.DownloadListener() {
+        @Override
+        public void onProgress(ProgressSampler.Snapshot progress) {
+        }
+
+        @Override
+        public void onDownloadFinished(boolean success) {
+            if(success)
+                updateStatusText();
+            else
+                updateFailed();
+            updateStatusIcon.stopButtonAnimationSmooth();
+            checkUpdateButton.setClickable(true);
+        }
+    };
+    private ServiceConnection downloadConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            downloadService = ((DownloadService.DownloadBinder) binder).getService();
+            downloadService.addDownloadListener(downloadListener);
+            if(downloadService.isRunning()) {
+                showDownloading();
+                updateStatusIcon.startButtonAnimation();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            downloadService = null;
+        }
+    };
     /**The button that checks the update on click*/
     @BindView(R.id.checkUpdateButton)
     protected AnimatedImageButton checkUpdateButton;
     @BindView(R.id.updateStatusIcon)
     protected AnimatedImageButton updateStatusIcon;
+    @BindView(R.id.prefetchSwitch)
+    protected SwitchCompat prefetchSwitch;
 
 
     /**
      * Creates the intent to start the {@link android.app.Activity}
      * @param context the current {@link Context}
-     * @param restartTimer whether the {@link android.app.Activity} should reset the {@link AlarmReceiver} at startup
+     * @param restartTimer whether the {@link android.app.Activity} should make sure the update checks are scheduled at startup
      * @return the {@link Intent}
      */
     public static Intent createIntent(Context context, boolean restartTimer) {
@@ -67,21 +120,86 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
-        ButterKnife.bind(this);
+        TraceCompat.beginSection(TRACE_CREATE);
+        try {
+            super.onCreate(savedInstanceState);
+            setContentView(R.layout.activity_main);
+            ButterKnife.bind(this);
+
+            //nothing can be done until the state is loaded
+            checkUpdateButton.setClickable(false);
+            prefetchSwitch.setEnabled(false);
+            afterFirstDraw(new Runnable() {
+                @Override
+                public void run() {
+                    loadState();
+                }
+            });
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
 
-        cu = new ChromiumUpdater(this);
-        progressNotification = new ProgressNotification(this, getString(R.string.updateNotificationText));
+    /**Runs the task on the main thread right after the first frame is drawn*/
+    private void afterFirstDraw(final Runnable task) {
+        final View decor = getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                //posted now, it runs once the frame about to be drawn is done
+                decor.post(task);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Loads the update state and everything the updater needs (preferences, apk cache, HTTP client)
+     * on a background thread, then shows it.
+     */
+    private void loadState() {
+        final boolean scheduleChecks = checkArguments();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TraceCompat.beginSection(TRACE_LOAD_STATE);
+                final ChromiumUpdater updater;
+                try {
+                    updater = new ChromiumUpdater(MainActivity.this);
+                    if(scheduleChecks) UpdateScheduler.ensureScheduled(MainActivity.this);
+                } finally {
+                    TraceCompat.endSection();
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(!destroyed) showState(updater);
+                    }
+                });
+            }
+        }, TRACE_LOAD_STATE).start();
+    }
 
-        //checks the external write permissions
-        checkPermissions();
-        //check arguments
-        checkArguments();
-        //init the status text
-        updateStatusText();
-        //checks for update at application start
-        checkUpdateButton.performClick();
+    /**Fills in the UI once the state is loaded and checks for update*/
+    private void showState(ChromiumUpdater updater) {
+        TraceCompat.beginSection(TRACE_SHOW_STATE);
+        try {
+            cu = updater;
+            //binds to the download service whenever it runs, without starting it
+            bindService(new Intent(this, DownloadService.class), downloadConnection, 0);
+
+            //init the status text and keep it in sync with the update state
+            updateStatusText();
+            UpdateStateStore.getInstance(this).addOnStateChangeListener(stateListener);
+            prefetchSwitch.setChecked(UpdateStateStore.getInstance(this).isPrefetchEnabled());
+            prefetchSwitch.setEnabled(true);
+            //checks for update at application start
+            checkUpdateButton.performClick();
+        } finally {
+            TraceCompat.endSection();
+        }
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) reportFullyDrawn();
     }
 
     @OnClick(R.id.checkUpdateButton)
@@ -91,6 +209,8 @@ public class MainActivity extends AppCompatActivity {
         cu.checkForUpdate(new ChromiumUpdater.ReturnCallback<Boolean>() {
             public void onReturn(Boolean returnValue) {
                 b.stopButtonAnimationSmooth();
+                //the buttons get enabled again when the download ends
+                if(downloadService != null && downloadService.isRunning()) return;
                 b.setButtonAnimationListener(setClickableOnAnimEndListener(b));
                 if(returnValue == null) {
                     setStatusText(getResources().getString(R.string.updateFailed));
@@ -104,22 +224,45 @@ public class MainActivity extends AppCompatActivity {
     @OnClick(R.id.updateStatusIcon)
     protected void startUpdateOnClick(final AnimatedImageButton b) {
         b.setClickable(false);
-        checkUpdateButton.setClickable(false);
-        progressNotification.start();
-        setStatusText(getString(R.string.updateDownloadingText));
-        //start the actual update
-        cu.update(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), progressNotification, new ChromiumUpdater.ReturnCallback<Boolean>() {
-            public void onReturn(Boolean returnValue) {
-                if(returnValue)
-                    updateStatusText();
-                else
-                    updateFailed();
-                b.stopButtonAnimationSmooth();
-                checkUpdateButton.setClickable(true);
+        //if the update was already downloaded in background it's installed right away
+        cu.installCached(new ChromiumUpdater.ReturnCallback<Boolean>() {
+            @Override
+            public void onReturn(Boolean installing) {
+                if(installing) {
+                    b.stopButtonAnimationSmooth();
+                    b.setClickable(true);
+                    return;
+                }
+                showDownloading();
+                //start the actual update. The service outlives the activity, the listener tracks its end
+                DownloadService.start(MainActivity.this);
             }
         });
     }
 
+    @OnCheckedChanged(R.id.prefetchSwitch)
+    protected void prefetchOnCheckedChanged(CompoundButton button, boolean checked) {
+        UpdateStateStore.getInstance(this).setPrefetchEnabled(checked);
+    }
+
+    /**Debug aid: shares the network metrics of the last checks and downloads as CSV*/
+    @OnLongClick(R.id.updateStatusText)
+    protected boolean exportMetricsOnLongClick() {
+        Intent share = new Intent(Intent.ACTION_SEND)
+                .setType("text/plain")
+                .putExtra(Intent.EXTRA_SUBJECT, getString(R.string.metricsSubject))
+                .putExtra(Intent.EXTRA_TEXT, MetricsStore.getInstance(this).export());
+        startActivity(Intent.createChooser(share, getString(R.string.metricsExportText)));
+        return true;
+    }
+
+    /**Disables the buttons while the update is downloading*/
+    private void showDownloading() {
+        updateStatusIcon.setClickable(false);
+        checkUpdateButton.setClickable(false);
+        setStatusText(getString(R.string.updateDownloadingText));
+    }
+
 
     /**Sets the status text to the string passed as input*/
     private void setStatusText(String message) {
@@ -153,61 +296,18 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    /**Checks for the WRITE permission on the external storage. If not present it asks for it*/
-    private void checkPermissions() {
-        int canRead =  ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE);
-        if(canRead != PackageManager.PERMISSION_GRANTED)
-            ActivityCompat.requestPermissions(this,
-                    new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE}, REQUEST_EXTERNAL_WRITE);
-    }
-
-    /**Checks the arguments passed via the bundle*/
-    private void checkArguments() {
+    /**Checks the arguments passed via the bundle. @return whether the update checks should be scheduled*/
+    private boolean checkArguments() {
         Bundle extras = getIntent().getExtras();
         boolean restartAlarm = extras == null || extras.getBoolean(ARG_START_ALARM_ON_OPEN, true);
         Log.d(TAG, ARG_START_ALARM_ON_OPEN + ": " + restartAlarm);
-
-        if(restartAlarm) startAlarm();
-    }
-
-    /**Restart {@link AlarmReceiver}*/
-    private void  startAlarm() {
-        Intent intent = new Intent(this, AlarmReceiver.class);
-        AlarmManager alarmMgr = (AlarmManager) this.getSystemService(Context.ALARM_SERVICE);
-        PendingIntent alarmIntent = PendingIntent.getBroadcast(this, 0, intent, 0);
-
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTimeInMillis(System.currentTimeMillis());
-        calendar.set(Calendar.HOUR_OF_DAY, Constants.ALARM_HOUR);
-        calendar.set(Calendar.MINUTE, Constants.ALARM_MINUTE);
-
-        alarmMgr.setRepeating(AlarmManager.RTC_WAKEUP, calendar.getTimeInMillis(),
-                Constants.DAY_INTERVAL, alarmIntent);
-
-        Log.d(TAG, "started update alarm");
+        return restartAlarm;
     }
 
     /**Called upon update failure*/
     private void updateFailed() {
         //the update failed, reset status text to last build available for download
         setStatusText(getResources().getString(R.string.updateFailedText));
-        //dismiss progress notification
-        progressNotification.cancel();
-    }
-
-    /**Returns the result of the permission request. If the WRITE permissions on external storage was
-     * negated it stops the app*/
-    @Override
-    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
-        switch(requestCode) {
-            case REQUEST_EXTERNAL_WRITE:
-                //exit if the permission is not granted
-                if(grantResults.length == 0 || grantResults[0] != PackageManager.PERMISSION_GRANTED) {
-                    Toast.makeText(this, R.string.permDeniedError, Toast.LENGTH_SHORT).show();
-                    finish();
-                }
-                break;
-        }
     }
 
     private Animation.AnimationListener setClickableOnAnimEndListener(final AnimatedImageButton b) {
@@ -224,7 +324,12 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onDestroy() {
-        progressNotification.destroy();
+        destroyed = true;
+        if(cu != null) {
+            UpdateStateStore.getInstance(this).removeOnStateChangeListener(stateListener);
+            if(downloadService != null) downloadService.removeDownloadListener(downloadListener);
+            unbindService(downloadConnection);
+        }
         super.onDestroy();
     }
 }
@@ -0,0 +1,363 @@
+package com.bamless.chromiumsweupdater.install;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Checks that a downloaded APK is a complete, well formed ZIP archive and reads the package name
+ * and version code of its manifest, so that a truncated or corrupted download is rejected before
+ * the installer is launched. The file is memory mapped and never loaded in the heap: only the
+ * End of Central Directory record, the central directory and the (small) compressed
+ * AndroidManifest.xml are read. The manifest is in Android binary XML, of which only
+ * the string pool, the resource map and the first start tag are parsed.
+ */
+public class ApkValidator {
+    /**Name of the manifest entry*/
+    public final static String MANIFEST_ENTRY = "AndroidManifest.xml";
+
+    /**ZIP record signatures and sizes*/
+    private final static int EOCD_SIGNATURE = 0x06054b50;
+    private final static int EOCD_SIZE = 22;
+    private final static int MAX_COMMENT_SIZE = 0xffff;
+    private final static int CD_ENTRY_SIGNATURE = 0x02014b50;
+    private final static int CD_ENTRY_SIZE = 46;
+    private final static int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private final static int LOCAL_HEADER_SIZE = 30;
+    private final static int METHOD_STORED = 0;
+    private final static int METHOD_DEFLATED = 8;
+    private final static long ZIP64_MARKER = 0xffffffffL;
+    /**Max size of the manifest, a bigger one is most likely corrupted*/
+    private final static int MAX_MANIFEST_SIZE = 4 * 1024 * 1024;
+
+    /**Binary XML chunk types*/
+    private final static int RES_XML_TYPE = 0x0003;
+    private final static int RES_STRING_POOL_TYPE = 0x0001;
+    private final static int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+    private final static int RES_XML_START_ELEMENT_TYPE = 0x0102;
+    private final static int UTF8_FLAG = 1 << 8;
+    /**Typed values of the attributes*/
+    private final static int TYPE_STRING = 0x03;
+    private final static int TYPE_INT_DEC = 0x10;
+    private final static int TYPE_INT_HEX = 0x11;
+    private final static int NO_INDEX = -1;
+    /**Resource id of the versionCode attribute, used when the attribute names are stripped*/
+    private final static int ATTR_VERSION_CODE = 0x0101021b;
+
+    private ApkValidator() {
+    }
+
+    /**
+     * Validates the APK.
+     * @return the package name and version code of the APK
+     * @throws InvalidApkException if the APK is truncated, corrupted or has no valid manifest
+     * @throws IOException if the file can't be read
+     */
+    public static ApkInfo validate(File apk) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(apk, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer zip = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            zip.order(ByteOrder.LITTLE_ENDIAN);
+            return parseManifest(readManifestEntry(zip));
+        } catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new InvalidApkException("Malformed APK " + apk, e);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Walks the central directory checking the bounds of every entry.
+     * @return the uncompressed AndroidManifest.xml
+     */
+    private static byte[] readManifestEntry(ByteBuffer zip) throws IOException {
+        int eocd = findEocd(zip);
+        int entries = zip.getShort(eocd + 10) & 0xffff;
+        long cdSize = zip.getInt(eocd + 12) & 0xffffffffL;
+        long cdOffset = zip.getInt(eocd + 16) & 0xffffffffL;
+        if(cdSize == ZIP64_MARKER || cdOffset == ZIP64_MARKER)
+            throw new InvalidApkException("ZIP64 archives are not supported");
+        //in an APK the central directory ends right where the EOCD begins
+        if(cdOffset + cdSize != eocd)
+            throw new InvalidApkException("Central directory out of place: " + cdOffset + "+" + cdSize);
+
+        byte[] manifest = null;
+        int pos = (int) cdOffset;
+        for(int i = 0; i < entries; i++) {
+            if(pos + CD_ENTRY_SIZE > eocd || zip.getInt(pos) != CD_ENTRY_SIGNATURE)
+                throw new InvalidApkException("Corrupted central directory entry " + i);
+            int method = zip.getShort(pos + 10) & 0xffff;
+            long crc = zip.getInt(pos + 16) & 0xffffffffL;
+            long compressedSize = zip.getInt(pos + 20) & 0xffffffffL;
+            long size = zip.getInt(pos + 24) & 0xffffffffL;
+            int nameLength = zip.getShort(pos + 28) & 0xffff;
+            int extraLength = zip.getShort(pos + 30) & 0xffff;
+            int commentLength = zip.getShort(pos + 32) & 0xffff;
+            long localHeader = zip.getInt(pos + 42) & 0xffffffffL;
+            int next = pos + CD_ENTRY_SIZE + nameLength + extraLength + commentLength;
+            if(next > eocd)
+                throw new InvalidApkException("Corrupted central directory entry " + i);
+
+            //the data of the entry must lie before the central directory. Only the central directory
+            //is used for this check, reading every local header would fault in pages all over the file
+            if(localHeader + LOCAL_HEADER_SIZE + nameLength + compressedSize > cdOffset)
+                throw new InvalidApkException("Entry " + i + " past the end of the data");
+
+            if(manifest == null && isName(zip, pos + CD_ENTRY_SIZE, nameLength, MANIFEST_ENTRY))
+                manifest = extract(zip, (int) localHeader, cdOffset, method, compressedSize, size, crc);
+            pos = next;
+        }
+        if(pos != eocd)
+            throw new InvalidApkException("Central directory size mismatch");
+        if(manifest == null)
+            throw new InvalidApkException("No " + MANIFEST_ENTRY);
+        return manifest;
+    }
+
+    /**@return the position of the End of Central Directory record, which is followed by its comment*/
+    private static int findEocd(ByteBuffer zip) throws InvalidApkException {
+        int size = zip.capacity();
+        if(size < EOCD_SIZE)
+            throw new InvalidApkException("File too short: " + size);
+        int min = Math.max(0, size - EOCD_SIZE - MAX_COMMENT_SIZE);
+        for(int pos = size - EOCD_SIZE; pos >= min; pos--) {
+            if(zip.getInt(pos) == EOCD_SIGNATURE
+                    && pos + EOCD_SIZE + (zip.getShort(pos + 20) & 0xffff) == size)
+                return pos;
+        }
+        throw new InvalidApkException("No End of Central Directory, the file is truncated");
+    }
+
+    private static boolean isName(ByteBuffer zip, int pos, int length, String name) {
+        if(length != name.length()) return false;
+        for(int i = 0; i < length; i++) {
+            if(zip.get(pos + i) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**Reads an entry from its local header and checks its CRC*/
+    private static byte[] extract(ByteBuffer zip, int localHeader, long cdOffset, int method,
+                                  long compressedSize, long size, long crc) throws InvalidApkException {
+        if(size > MAX_MANIFEST_SIZE || compressedSize > MAX_MANIFEST_SIZE)
+            throw new InvalidApkException(MANIFEST_ENTRY + " too big: " + size);
+        if(zip.getInt(localHeader) != LOCAL_HEADER_SIGNATURE)
+            throw new InvalidApkException("Bad local header of " + MANIFEST_ENTRY);
+        //the local extra field can differ from the one in the central directory
+        int data = localHeader + LOCAL_HEADER_SIZE + (zip.getShort(localHeader + 26) & 0xffff)
+                + (zip.getShort(localHeader + 28) & 0xffff);
+        if(data + compressedSize > cdOffset)
+            throw new InvalidApkException(MANIFEST_ENTRY + " past the end of the data");
+
+        byte[] compressed = new byte[(int) compressedSize];
+        ByteBuffer source = zip.duplicate();
+        source.position(data);
+        source.get(compressed);
+
+        byte[] content;
+        if(method == METHOD_STORED) {
+            content = compressed;
+        } else if(method == METHOD_DEFLATED) {
+            content = new byte[(int) size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed);
+                if(inflater.inflate(content) != size || !inflater.finished())
+                    throw new InvalidApkException(MANIFEST_ENTRY + " size mismatch");
+            } catch(DataFormatException e) {
+                throw new InvalidApkException("Corrupted " + MANIFEST_ENTRY, e);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new InvalidApkException("Unsupported compression method " + method);
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(content, 0, content.length);
+        if(checksum.getValue() != crc)
+            throw new InvalidApkException("CRC mismatch of " + MANIFEST_ENTRY);
+        return content;
+    }
+
+    /**
+     * Reads the package name and version code from the root tag of a binary AndroidManifest.xml.
+     * @throws InvalidApkException if the manifest is malformed or misses them
+     */
+    public static ApkInfo parseManifest(byte[] manifest) throws InvalidApkException {
+        ByteBuffer xml = ByteBuffer.wrap(manifest).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if((xml.getShort(0) & 0xffff) != RES_XML_TYPE)
+                throw new InvalidApkException("Not a binary XML manifest");
+
+            String[] strings = null;
+            int[] resourceIds = new int[0];
+            int end = Math.min(xml.getInt(4), manifest.length);
+            int pos = xml.getShort(2) & 0xffff;
+            while(pos + 8 <= end) {
+                int type = xml.getShort(pos) & 0xffff;
+                int size = xml.getInt(pos + 4);
+                if(size < 8 || pos + size > end)
+                    throw new InvalidApkException("Malformed chunk at " + pos);
+
+                if(type == RES_STRING_POOL_TYPE) {
+                    strings = readStringPool(xml, pos);
+                } else if(type == RES_XML_RESOURCE_MAP_TYPE) {
+                    int headerSize = xml.getShort(pos + 2) & 0xffff;
+                    resourceIds = new int[(size - headerSize) / 4];
+                    for(int i = 0; i < resourceIds.length; i++)
+                        resourceIds[i] = xml.getInt(pos + headerSize + i * 4);
+                } else if(type == RES_XML_START_ELEMENT_TYPE) {
+                    if(strings == null)
+                        throw new InvalidApkException("No string pool");
+                    return readManifestTag(xml, pos, strings, resourceIds);
+                }
+                pos += size;
+            }
+        } catch(IndexOutOfBoundsException e) {
+            throw new InvalidApkException("Malformed " + MANIFEST_ENTRY, e);
+        }
+        throw new InvalidApkException("No manifest tag");
+    }
+
+    private static ApkInfo readManifestTag(ByteBuffer xml, int pos, String[] strings, int[] resourceIds)
+            throws InvalidApkException {
+        int ext = pos + (xml.getShort(pos + 2) & 0xffff);
+        if(!"manifest".equals(string(strings, xml.getInt(ext + 4))))
+            throw new InvalidApkException("The root tag is not manifest");
+        int attributeStart = xml.getShort(ext + 8) & 0xffff;
+        int attributeSize = xml.getShort(ext + 10) & 0xffff;
+        int attributeCount = xml.getShort(ext + 12) & 0xffff;
+
+        String packageName = null;
+        Integer versionCode = null;
+        for(int i = 0; i < attributeCount; i++) {
+            int attribute = ext + attributeStart + i * attributeSize;
+            int nameIndex = xml.getInt(attribute + 4);
+            String name = string(strings, nameIndex);
+            int resourceId = nameIndex >= 0 && nameIndex < resourceIds.length ? resourceIds[nameIndex] : 0;
+            int rawValue = xml.getInt(attribute + 8);
+            int dataType = xml.get(attribute + 15) & 0xff;
+            int data = xml.getInt(attribute + 16);
+
+            if("package".equals(name)) {
+                packageName = string(strings, dataType == TYPE_STRING ? data : rawValue);
+            } else if("versionCode".equals(name) || resourceId == ATTR_VERSION_CODE) {
+                if(dataType == TYPE_INT_DEC || dataType == TYPE_INT_HEX) {
+                    versionCode = data;
+                } else {
+                    try {
+                        versionCode = Integer.valueOf(string(strings, rawValue));
+                    } catch(NumberFormatException e) {
+                        throw new InvalidApkException("Malformed versionCode", e);
+                    }
+                }
+            }
+        }
+        if(packageName == null || packageName.isEmpty())
+            throw new InvalidApkException("No package name in the manifest");
+        if(versionCode == null)
+            throw new InvalidApkException("No versionCode in the manifest");
+        return new ApkInfo(packageName, versionCode);
+    }
+
+    private static String[] readStringPool(ByteBuffer xml, int pos) throws InvalidApkException {
+        int headerSize = xml.getShort(pos + 2) & 0xffff;
+        int count = xml.getInt(pos + 8);
+        int flags = xml.getInt(pos + 16);
+        int stringsStart = pos + xml.getInt(pos + 20);
+        if(count < 0 || count > (xml.getInt(pos + 4) - headerSize) / 4)
+            throw new InvalidApkException("Malformed string pool");
+
+        boolean utf8 = (flags & UTF8_FLAG) != 0;
+        String[] strings = new String[count];
+        for(int i = 0; i < count; i++) {
+            int offset = stringsStart + xml.getInt(pos + headerSize + i * 4);
+            strings[i] = utf8 ? readUtf8(xml, offset) : readUtf16(xml, offset);
+        }
+        return strings;
+    }
+
+    private static String readUtf8(ByteBuffer xml, int pos) throws InvalidApkException {
+        //the length in UTF-16 units, then the length in bytes, each on one or two bytes
+        pos += (xml.get(pos) & 0x80) != 0 ? 2 : 1;
+        int length = xml.get(pos) & 0xff;
+        if((length & 0x80) != 0) {
+            length = (length & 0x7f) << 8 | (xml.get(pos + 1) & 0xff);
+            pos += 2;
+        } else {
+            pos += 1;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer source = xml.duplicate();
+        source.position(pos);
+        source.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch(IOException e) {
+            throw new InvalidApkException("Malformed string", e);
+        }
+    }
+
+    private static String readUtf16(ByteBuffer xml, int pos) {
+        int length = xml.getShort(pos) & 0xffff;
+        if((length & 0x8000) != 0) {
+            length = (length & 0x7fff) << 16 | (xml.getShort(pos + 2) & 0xffff);
+            pos += 4;
+        } else {
+            pos += 2;
+        }
+        char[] chars = new char[length];
+        for(int i = 0; i < length; i++)
+            chars[i] = xml.getChar(pos + i * 2);
+        return new String(chars);
+    }
+
+    private static String string(String[] strings, int index) {
+        return index == NO_INDEX || index < 0 || index >= strings.length ? null : strings[index];
+    }
+
+    /**Package name and version code of an APK*/
+    public static class ApkInfo {
+        private final String packageName;
+        private final int versionCode;
+
+        public ApkInfo(String packageName, int versionCode) {
+            this.packageName = packageName;
+            this.versionCode = versionCode;
+        }
+
+        public String getPackageName() {
+            return packageName;
+        }
+
+        public int getVersionCode() {
+            return versionCode;
+        }
+
+        @Override
+        public String toString() {
+            return packageName + " (" + versionCode + ")";
+        }
+    }
+
+    /**Thrown when the APK is truncated, corrupted or not an APK at all*/
+    public static class InvalidApkException extends IOException {
+        public InvalidApkException(String message) {
+            super(message);
+        }
+
+        public InvalidApkException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.bamless.chromiumsweupdater.install;
+
+import android.annotation.TargetApi;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageInstaller;
+import android.os.Build;
+import android.util.Log;
+
+import com.bamless.chromiumsweupdater.network.ResumableDownload;
+import com.bamless.chromiumsweupdater.receivers.InstallResultReceiver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Installs the update through a {@link PackageInstaller} session (Lollipop and later) instead of
+ * handing the apk to the installer UI. The apk can be streamed into the session while it's being
+ * downloaded: a {@link Session} is a {@link ResumableDownload.Tee} that copies every chunk
+ * written to the download file, so that once the download is verified the session only has to be
+ * committed. If the session didn't get the whole apk from a single attempt starting at the
+ * beginning of the file (the download was resumed or restarted) the apk is written again in a
+ * new session. The outcome of the commit is handled by
+ * the {@link InstallResultReceiver}: an app that isn't the system installer still needs the user
+ * to confirm the installation.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SessionInstaller {
+    private final static String TAG = SessionInstaller.class.getSimpleName();
+
+    /**Name of the apk in the session*/
+    private final static String APK_NAME = "base.apk";
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final Context context;
+    private final PackageInstaller installer;
+
+    public SessionInstaller(Context context) {
+        this.context = context.getApplicationContext();
+        this.installer = context.getPackageManager().getPackageInstaller();
+    }
+
+    /**@return true if the device supports session installs*/
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * Opens a new session, ready to receive the apk.
+     * @param size the size of the apk, -1 if unknown
+     */
+    public Session open(long size) throws IOException {
+        PackageInstaller.SessionParams params = new PackageInstaller.SessionParams(
+                PackageInstaller.SessionParams.MODE_FULL_INSTALL);
+        if(size > 0) params.setSize(size);
+        int id = installer.createSession(params);
+        try {
+            return new Session(id, installer.openSession(id), size);
+        } catch(IOException | RuntimeException e) {
+            installer.abandonSession(id);
+            throw e;
+        }
+    }
+
+    /**
+     * Installs the apk.
+     * @param streamed the session the apk was streamed to while downloading. Can be null
+     * @throws IOException if the session can't be written or committed. The session is abandoned
+     */
+    public void install(File apk, Session streamed) throws IOException {
+        Session session = streamed;
+        if(session == null || !session.matches(apk)) {
+            if(session != null) {
+                Log.d(TAG, "The download wasn't streamed entirely, writing the apk again");
+                session.abandon();
+            }
+            session = open(apk.length());
+            session.write(apk);
+        }
+        session.commit();
+    }
+
+    /**
+     * An open install session. It can receive the apk as it's downloaded: its chunks are copied to
+     * the session as long as they come from a single attempt that starts from the beginning of the
+     * file.
+     */
+    public class Session implements ResumableDownload.Tee {
+        private final int id;
+        private final PackageInstaller.Session session;
+        private final OutputStream out;
+        private long written;
+        /**Whether a download attempt started writing to the session*/
+        private boolean started;
+        /**
+         * Whether the session can't hold the apk: a write failed, or the bytes don't start from the
+         * beginning of the file. The download goes on, the apk is written later
+         */
+        private boolean broken;
+
+        private Session(int id, PackageInstaller.Session session, long size) throws IOException {
+            this.id = id;
+            this.session = session;
+            this.out = session.openWrite(APK_NAME, 0, size > 0 ? size : -1);
+        }
+
+        @Override
+        public void onStart(long offset) {
+            if(offset != 0 || started) {
+                Log.d(TAG, "Download resumed at " + offset + ", the apk will be written again");
+                broken = true;
+            }
+            started = true;
+        }
+
+        @Override
+        public void onChunk(byte[] chunk, int length) {
+            if(broken) return;
+            try {
+                out.write(chunk, 0, length);
+                written += length;
+            } catch(IOException e) {
+                Log.w(TAG, "Cannot stream the apk to the session", e);
+                broken = true;
+            }
+        }
+
+        /**
+         * @return true if the session received exactly the content of the apk: all of its bytes,
+         *         from its start, in a single attempt
+         */
+        private boolean matches(File apk) {
+            return started && !broken && written == apk.length();
+        }
+
+        private void write(File apk) throws IOException {
+            InputStream in = new FileInputStream(apk);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for(int read; (read = in.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, read);
+                    written += read;
+                }
+            } catch(IOException e) {
+                abandon();
+                throw e;
+            } finally {
+                in.close();
+            }
+        }
+
+        /**Commits the session. The result is delivered to the {@link InstallResultReceiver}*/
+        private void commit() throws IOException {
+            try {
+                session.fsync(out);
+                out.close();
+                PendingIntent result = PendingIntent.getBroadcast(context, id,
+                        new Intent(context, InstallResultReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+                session.commit(result.getIntentSender());
+            } catch(IOException | RuntimeException e) {
+                session.abandon();
+                throw e;
+            } finally {
+                session.close();
+            }
+        }
+
+        /**Discards the session and what was written to it*/
+        public void abandon() {
+            try {
+                out.close();
+            } catch(IOException ignored) {
+            }
+            session.abandon();
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.bamless.chromiumsweupdater.models;
+
+/**
+ * An apk published in the update manifest: a build of a given channel for a given ABI.
+ * Immutable.
+ */
+public class Artifact {
+    /**ABI of the artifacts that run on every device (i.e. the fat apk)*/
+    public final static String ABI_UNIVERSAL = "universal";
+
+    private final String channel;
+    private final String abi;
+    private final BuildDate build;
+    private final String path;
+    private final long size;
+    private final String sha256;
+
+    /**
+     * @param path path of the apk relative to the repo
+     * @param size size of the apk in bytes, -1 if unknown
+     * @param sha256 hex encoded SHA-256 of the apk, null if unknown
+     */
+    public Artifact(String channel, String abi, BuildDate build, String path, long size, String sha256) {
+        if(channel == null || abi == null || build == null || path == null)
+            throw new IllegalArgumentException("channel, abi, build and path are mandatory");
+        this.channel = channel;
+        this.abi = abi;
+        this.build = build;
+        this.path = path;
+        this.size = size;
+        this.sha256 = sha256;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public String getAbi() {
+        return abi;
+    }
+
+    public BuildDate getBuild() {
+        return build;
+    }
+
+    /**@return the path of the apk relative to the repo*/
+    public String getPath() {
+        return path;
+    }
+
+    /**@return the size of the apk in bytes, -1 if unknown*/
+    public long getSize() {
+        return size;
+    }
+
+    /**@return the hex encoded SHA-256 of the apk, null if unknown*/
+    public String getSha256() {
+        return sha256;
+    }
+
+    @Override
+    public String toString() {
+        return channel + "/" + abi + " " + build + " (" + path + ")";
+    }
+}
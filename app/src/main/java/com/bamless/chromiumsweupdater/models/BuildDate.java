@@ -3,153 +3,194 @@ package com.bamless.chromiumsweupdater.models;
 import android.support.annotation.NonNull;
 
 /**
- * Class that represent a build timestamp.
+ * Class that represent a build timestamp. The timestamp is immutable and packed in a single long
+ * (year, month, day, hour, min and sec from the most to the least significant bits), so that
+ * comparing two timestamps is a single comparison.
  */
 public class BuildDate implements Comparable<BuildDate> {
-    private int day = 1;
-    private int month = 1;
-    private int year = 1970;
+    /**Bit offsets of the fields in the packed timestamp*/
+    private static final int SEC_SHIFT = 0;
+    private static final int MIN_SHIFT = 6;
+    private static final int HOUR_SHIFT = 12;
+    private static final int DAY_SHIFT = 17;
+    private static final int MONTH_SHIFT = 22;
+    private static final int YEAR_SHIFT = 26;
 
-    private int hour = 0;
-    private int min = 0;
-    private int sec = 0;
+    /**Separators that follow each field in the d/m/y hour:min:sec format*/
+    private static final String SEPARATORS = "// ::";
+    /**Max number of digits of a field*/
+    private static final int MAX_DIGITS = 4;
+
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private final long packed;
+    /**Cached result of toString(). The object is immutable, so it's formatted only once*/
+    private String string;
 
     public BuildDate() {
+        this(1, 1, 1970, 0, 0, 0);
     }
 
     public BuildDate(int day, int month, int year, int hour, int min, int sec) {
-        setDay(day);
-        setMonth(month);
-        setYear(year);
-        setHour(hour);
-        setMin(min);
-        setSec(sec);
-    }
-
-    public static BuildDate parseBuildTime(String buildtime) {
-        BuildDate bt = new BuildDate();
-
-        String[] datetime = buildtime.split(" ");
-        if(datetime.length != 2)
-            throw new IllegalArgumentException("Malformed input. the build time should " +
-                    "be formatted this way: d/m/y hour:min:sec");
-
-        String[] date = datetime[0].split("/");
-        if(date.length != 3)
-            throw new IllegalArgumentException("Error while parsing the date");
-
-        bt.setDay(Integer.parseInt(date[0].charAt(0) == '0' ? date[0].charAt(1)+"" : date[0]));
-        bt.setMonth(Integer.parseInt(date[1].charAt(0) == '0' ? date[1].charAt(1)+"" : date[1]));
-        bt.setYear(Integer.parseInt(date[2].charAt(0) == '0' ? date[2].charAt(1)+"" : date[2]));
-
-        String[] time = datetime[1].split(":");
-        if(time.length != 3)
-            throw new IllegalArgumentException("Error while parsing the time");
-
-        bt.setHour(Integer.parseInt(time[0].charAt(0) == '0' ? time[0].charAt(1) + "" : time[0]));
-        bt.setMin(Integer.parseInt(time[1].charAt(0) == '0' ? time[1].charAt(1) + "" : time[1]));
-        bt.setSec(Integer.parseInt(time[2].charAt(0) == '0' ? time[2].charAt(1) + "" : time[2]));
+        if(year < 1970)
+            throw new IllegalArgumentException("Are you mad? There is no year prior to 1970");
+        if(month < 1 || month > 12)
+            throw new IllegalArgumentException("month must be between 1 and 12");
+        if(day < 1 || day > daysInMonth(month, year))
+            throw new IllegalArgumentException("day must be between 1 and " + daysInMonth(month, year));
+        if(hour < 0 || hour > 23)
+            throw new IllegalArgumentException("hour must be between 0 and 23");
+        if(min < 0 || min > 59)
+            throw new IllegalArgumentException("min must be between 0 and 59");
+        if(sec < 0 || sec > 59)
+            throw new IllegalArgumentException("sec must be between 0 and 59");
 
-        return bt;
+        packed = (long) year << YEAR_SHIFT | (long) month << MONTH_SHIFT | (long) day << DAY_SHIFT
+                | (long) hour << HOUR_SHIFT | (long) min << MIN_SHIFT | (long) sec << SEC_SHIFT;
+    }
+
+    /**
+     * Parses a build time formatted as d/m/y hour:min:sec (leading zeros are optional). The input
+     * is scanned in a single pass without allocating intermediate strings. Leading and trailing
+     * whitespace is ignored.
+     */
+    public static BuildDate parseBuildTime(CharSequence buildtime) {
+        int start = 0, end = buildtime.length();
+        while(start < end && Character.isWhitespace(buildtime.charAt(start))) start++;
+        while(end > start && Character.isWhitespace(buildtime.charAt(end - 1))) end--;
+
+        int day = 0, month = 0, year = 0, hour = 0, min = 0;
+        int field = 0, value = 0, digits = 0;
+        for(int i = start; i <= end; i++) {
+            char c = i < end ? buildtime.charAt(i) : 0;
+            if(c >= '0' && c <= '9') {
+                if(++digits > MAX_DIGITS)
+                    throw new IllegalArgumentException("Malformed input. Field too long at " + i);
+                value = value * 10 + (c - '0');
+                continue;
+            }
+
+            //a field ended: it must have at least a digit and be followed by the right separator
+            boolean last = field == SEPARATORS.length();
+            if(digits == 0 || (last ? i != end : i == end || c != SEPARATORS.charAt(field)))
+                throw new IllegalArgumentException("Malformed input. the build time should " +
+                        "be formatted this way: d/m/y hour:min:sec");
+
+            switch(field) {
+                case 0: day = value; break;
+                case 1: month = value; break;
+                case 2: year = value; break;
+                case 3: hour = value; break;
+                case 4: min = value; break;
+                default: return new BuildDate(day, month, year, hour, min, value);
+            }
+            field++;
+            value = 0;
+            digits = 0;
+        }
+        throw new IllegalArgumentException("Malformed input. the build time should " +
+                "be formatted this way: d/m/y hour:min:sec");
     }
 
     public int getDay() {
-        return day;
-    }
-
-    public void setDay(int day) {
-        //check day
-        this.day = day;
+        return field(DAY_SHIFT, 0x1f);
     }
 
     public int getMonth() {
-        return month;
-    }
-
-    public void setMonth(int month) {
-        if(month < 1 || month > 12)
-            throw new IllegalArgumentException("month must be between 1 and 12");
-        this.month = month;
+        return field(MONTH_SHIFT, 0xf);
     }
 
     public int getYear() {
-        return year;
-    }
-
-    public void setYear(int year) {
-        if(year < 1970)
-            throw new IllegalArgumentException("Are you mad? There is no year prior to 1970");
-        this.year = year;
+        return (int) (packed >>> YEAR_SHIFT);
     }
 
     public int getHour() {
-        return hour;
-    }
-
-    public void setHour(int hour) {
-        if(hour < 0 || hour > 23)
-            throw new IllegalArgumentException("hour must be between 0 and 23");
-        this.hour = hour;
+        return field(HOUR_SHIFT, 0x1f);
     }
 
     public int getMin() {
-        return min;
+        return field(MIN_SHIFT, 0x3f);
     }
 
-    public void setMin(int min) {
-        if(min < 0 || min > 59)
-            throw new IllegalArgumentException("min must be between 0 and 59");
-        this.min = min;
+    public int getSec() {
+        return field(SEC_SHIFT, 0x3f);
     }
 
-    public int getSec() {
-        return sec;
+    private int field(int shift, int mask) {
+        return (int) (packed >>> shift) & mask;
     }
 
-    public void setSec(int sec) {
-        if(sec < 0 || sec > 59)
-            throw new IllegalArgumentException("sec must be between 0 and 59");
-        this.sec = sec;
+    private static int daysInMonth(int month, int year) {
+        if(month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)))
+            return 29;
+        return DAYS_IN_MONTH[month - 1];
     }
 
     @Override
     public int compareTo(@NonNull BuildDate o) {
-        int res;
-        if((res = year - o.year) != 0) return res;
-        if((res = month - o.month) != 0) return res;
-        if((res = day - o.day) != 0) return res;
+        return packed < o.packed ? -1 : (packed == o.packed ? 0 : 1);
+    }
 
-        if((res = hour - o.hour) != 0) return res;
-        if((res = min - o.min) != 0) return res;
-        if((res = sec - o.sec) != 0) return res;
-        return 0;
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BuildDate && ((BuildDate) o).packed == packed;
     }
 
     @Override
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(day < 10 ? "0"+ day +"/" : day + "/");
-        sb.append(month < 10 ? "0"+ month +"/" : month + "/");
-        sb.append(year + " ");
-        sb.append(hour < 10 ? "0"+ hour +":" : hour + ":");
-        sb.append(min < 10 ? "0"+ min +":" : min + ":");
-        sb.append(sec < 10 ? "0"+ sec : sec);
-        return sb.toString();
+    public int hashCode() {
+        return (int) (packed ^ (packed >>> 32));
     }
 
+    /**@return the build date formatted as dd/mm/yyyy hh:mm:ss*/
+    @Override
+    public String toString() {
+        if(string == null) {
+            char[] buf = new char[19];
+            int pos = 0;
+            pos = putTwoDigits(buf, pos, getDay());
+            buf[pos++] = '/';
+            pos = putTwoDigits(buf, pos, getMonth());
+            buf[pos++] = '/';
+            pos = putTwoDigits(buf, pos, getYear() / 100);
+            pos = putTwoDigits(buf, pos, getYear() % 100);
+            buf[pos++] = ' ';
+            pos = putTwoDigits(buf, pos, getHour());
+            buf[pos++] = ':';
+            pos = putTwoDigits(buf, pos, getMin());
+            buf[pos++] = ':';
+            putTwoDigits(buf, pos, getSec());
+            string = new String(buf);
+        }
+        return string;
+    }
+
+    /**@return the date part of the build date, formatted as dd/mm/yyyy*/
     public String dateToString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(day < 10 ? "0"+ day +"/" : day + "/");
-        sb.append(month < 10 ? "0"+ month +"/" : month + "/");
-        sb.append(year);
-        return sb.toString();
+        return toString().substring(0, 10);
+    }
+
+    /**@return the build date in a compact form that can be used in file names (yyyymmddhhmmss)*/
+    public String toCompactString() {
+        char[] buf = new char[14];
+        int pos = 0;
+        pos = putTwoDigits(buf, pos, getYear() / 100);
+        pos = putTwoDigits(buf, pos, getYear() % 100);
+        pos = putTwoDigits(buf, pos, getMonth());
+        pos = putTwoDigits(buf, pos, getDay());
+        pos = putTwoDigits(buf, pos, getHour());
+        pos = putTwoDigits(buf, pos, getMin());
+        putTwoDigits(buf, pos, getSec());
+        return new String(buf);
     }
 
+    /**@return the time part of the build date, formatted as hh:mm:ss*/
     public String hourToString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(hour < 10 ? "0"+ hour +":" : hour + ":");
-        sb.append(min < 10 ? "0"+ min +":" : min + ":");
-        sb.append(sec < 10 ? "0"+ sec : sec);
-        return sb.toString();
+        return toString().substring(11);
+    }
+
+    private static int putTwoDigits(char[] buf, int pos, int value) {
+        buf[pos] = (char) ('0' + value / 10);
+        buf[pos + 1] = (char) ('0' + value % 10);
+        return pos + 2;
     }
 }
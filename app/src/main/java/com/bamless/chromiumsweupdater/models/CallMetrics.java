@@ -0,0 +1,99 @@
+package com.bamless.chromiumsweupdater.models;
+
+/**
+ * Timings and outcome of a single HTTP call, recorded by the
+ * {@link com.bamless.chromiumsweupdater.network.MetricsEventListener}. Durations are in
+ * milliseconds, -1 if the phase didn't happen (e.g. no DNS lookup nor TLS handshake on a pooled
+ * connection). The phases of the redirects followed by the call add up.
+ */
+public class CallMetrics {
+    /**Header of the CSV representation of the metrics (see {@link #toCsv()})*/
+    public final static String CSV_HEADER = "time,method,url,code,dns,connect,tls,ttfb,duration,"
+            + "bytes,retries,redirects,failure";
+    private final static int CSV_FIELDS = 13;
+
+    /**Wall clock time the call started at (milliseconds since epoch)*/
+    public final long time;
+    public final String method;
+    public final String url;
+    /**Status code of the last response, -1 if no response was received*/
+    public final int code;
+    public final long dns;
+    public final long connect;
+    public final long tls;
+    /**Time from the start of the call to the first byte of the response*/
+    public final long ttfb;
+    public final long duration;
+    /**Bytes of response body read*/
+    public final long bytes;
+    /**Requests repeated by the client after a failed connection or a stale pooled one*/
+    public final int retries;
+    public final int redirects;
+    /**Reason of the failure of the call, null if it succeeded*/
+    public final String failure;
+
+    public CallMetrics(long time, String method, String url, int code, long dns, long connect,
+                       long tls, long ttfb, long duration, long bytes, int retries, int redirects,
+                       String failure) {
+        this.time = time;
+        this.method = method;
+        this.url = url;
+        this.code = code;
+        this.dns = dns;
+        this.connect = connect;
+        this.tls = tls;
+        this.ttfb = ttfb;
+        this.duration = duration;
+        this.bytes = bytes;
+        this.retries = retries;
+        this.redirects = redirects;
+        this.failure = failure;
+    }
+
+    public boolean isSuccessful() {
+        return failure == null;
+    }
+
+    /**@return the rate the response body was read at (bytes per second), -1 if unknown*/
+    public float getBytesPerSecond() {
+        long transfer = duration - ttfb;
+        if(bytes <= 0 || ttfb < 0 || transfer <= 0) return -1;
+        return bytes * 1000f / transfer;
+    }
+
+    /**@return the metrics as a line of CSV (without line terminator), see {@link #CSV_HEADER}*/
+    public String toCsv() {
+        return time + "," + method + "," + sanitize(url) + "," + code + "," + dns + "," + connect
+                + "," + tls + "," + ttfb + "," + duration + "," + bytes + "," + retries + ","
+                + redirects + "," + (failure == null ? "" : sanitize(failure));
+    }
+
+    /**
+     * Parses a line written by {@link #toCsv()}.
+     * @return the metrics, null if the line is malformed
+     */
+    public static CallMetrics fromCsv(String line) {
+        String[] f = line.split(",", -1);
+        if(f.length != CSV_FIELDS) return null;
+        try {
+            return new CallMetrics(Long.parseLong(f[0]), f[1], f[2], Integer.parseInt(f[3]),
+                    Long.parseLong(f[4]), Long.parseLong(f[5]), Long.parseLong(f[6]),
+                    Long.parseLong(f[7]), Long.parseLong(f[8]), Long.parseLong(f[9]),
+                    Integer.parseInt(f[10]), Integer.parseInt(f[11]), f[12].isEmpty() ? null : f[12]);
+        } catch(NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**Strips the characters that would break a CSV field*/
+    private static String sanitize(String field) {
+        return field.replace(',', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + url + " " + (failure == null ? code : failure) + " in " + duration
+                + "ms (dns " + dns + ", connect " + connect + ", tls " + tls + ", ttfb " + ttfb
+                + ", " + bytes + " bytes)";
+    }
+}
@@ -0,0 +1,112 @@
+package com.bamless.chromiumsweupdater.models;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Parser of the update manifest, the catalog of all the apks published by the repo. The manifest
+ * is a JSON document formatted this way:
+ * <pre>
+ * {
+ *   "artifacts": [
+ *     {
+ *       "channel": "stable",
+ *       "abi": "arm64-v8a",
+ *       "build": "21/5/2017 3:12:45",
+ *       "path": "stable/arm64-v8a/chromium-swe.apk",
+ *       "size": 48211345,
+ *       "sha256": "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08"
+ *     }
+ *   ]
+ * }
+ * </pre>
+ * where build is in the same format of the legacy build file, and size and sha256 are optional.
+ * Unknown fields are ignored. An artifact with abi {@value Artifact#ABI_UNIVERSAL} runs on every
+ * device.
+ */
+public class Manifest {
+
+    private Manifest() {
+    }
+
+    /**
+     * Selects the artifact of the given channel that best fits the device. The manifest is parsed
+     * in a streaming way, so only the best artifact seen so far is kept in memory.
+     * @param in the manifest
+     * @param channel the channel to look for
+     * @param abis the ABIs supported by the device, in order of preference
+     * @return the artifact for the most preferred ABI (falling back to the universal one), or null
+     *         if the manifest doesn't have any artifact for the channel that runs on the device
+     * @throws IOException if the manifest cannot be read or it is malformed
+     */
+    public static Artifact selectArtifact(Reader in, String channel, String[] abis) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            Artifact best = null;
+            int bestRank = Integer.MAX_VALUE;
+
+            reader.beginObject();
+            while(reader.hasNext()) {
+                if(!reader.nextName().equals("artifacts")) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while(reader.hasNext()) {
+                    Artifact artifact = readArtifact(reader);
+                    if(!artifact.getChannel().equals(channel)) continue;
+                    int rank = rank(artifact.getAbi(), abis);
+                    if(rank < bestRank) {
+                        best = artifact;
+                        bestRank = rank;
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+            return best;
+        } catch(IllegalStateException | IllegalArgumentException e) {
+            //thrown on unexpected tokens, missing fields or malformed build dates
+            throw new IOException("Malformed manifest", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Artifact readArtifact(JsonReader reader) throws IOException {
+        String channel = null, abi = null, path = null, sha256 = null;
+        BuildDate build = null;
+        long size = -1;
+
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            if(reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch(name) {
+                case "channel": channel = reader.nextString(); break;
+                case "abi": abi = reader.nextString(); break;
+                case "build": build = BuildDate.parseBuildTime(reader.nextString()); break;
+                case "path": path = reader.nextString(); break;
+                case "size": size = reader.nextLong(); break;
+                case "sha256": sha256 = reader.nextString(); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+        return new Artifact(channel, abi, build, path, size, sha256);
+    }
+
+    /**@return the preference of the ABI (lower is better), or Integer.MAX_VALUE if unsupported*/
+    private static int rank(String abi, String[] abis) {
+        for(int i = 0; i < abis.length; i++) {
+            if(abi.equals(abis[i])) return i;
+        }
+        return abi.equals(Artifact.ABI_UNIVERSAL) ? abis.length : Integer.MAX_VALUE;
+    }
+}
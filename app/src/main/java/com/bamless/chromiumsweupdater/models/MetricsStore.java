@@ -0,0 +1,194 @@
+package com.bamless.chromiumsweupdater.models;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process wide ring buffer of the last {@link #CAPACITY} {@link CallMetrics}, persisted to a CSV
+ * file in the app private storage so that the history survives the process. New metrics are
+ * appended to the file by a background thread, and the file is rewritten with just the content of
+ * the buffer once it grows past twice the capacity. Listeners are notified on the thread that
+ * recorded the metrics.
+ */
+public class MetricsStore {
+    private final static String TAG = MetricsStore.class.getSimpleName();
+
+    /**Max number of metrics kept*/
+    public final static int CAPACITY = 256;
+    private final static String METRICS_FILE = "metrics.csv";
+    private final static String CHARSET = "UTF-8";
+
+    private static MetricsStore instance;
+
+    private final File file;
+    /**Metrics in recording order and count of the metrics ever recorded, guarded by buffer*/
+    private final ArrayDeque<CallMetrics> buffer = new ArrayDeque<>(CAPACITY);
+    private long recorded;
+    private final List<OnMetricsListener> listeners = new CopyOnWriteArrayList<>();
+    /**Single thread doing all the file IO, in order*/
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    /**Lines in the file and count of the metrics in it. Accessed only by the writer thread*/
+    private int fileLines;
+    private long written;
+
+    private MetricsStore(File file) {
+        this.file = file;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**@return the store, loading its file in background on the first call*/
+    public static synchronized MetricsStore getInstance(Context context) {
+        if(instance == null)
+            instance = new MetricsStore(new File(context.getApplicationContext().getFilesDir(), METRICS_FILE));
+        return instance;
+    }
+
+    /**Adds the metrics, evicting the oldest if the buffer is full*/
+    public void record(final CallMetrics metrics) {
+        final long seq;
+        synchronized(buffer) {
+            if(buffer.size() == CAPACITY) buffer.removeFirst();
+            buffer.addLast(metrics);
+            seq = ++recorded;
+        }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(metrics, seq);
+            }
+        });
+        for(OnMetricsListener listener : listeners)
+            listener.onMetrics(metrics);
+    }
+
+    /**@return the metrics recorded, the oldest first*/
+    public List<CallMetrics> getMetrics() {
+        synchronized(buffer) {
+            return new ArrayList<>(buffer);
+        }
+    }
+
+    /**@return the metrics recorded as CSV, with header*/
+    public String export() {
+        StringBuilder csv = new StringBuilder(CallMetrics.CSV_HEADER).append('\n');
+        for(CallMetrics metrics : getMetrics())
+            csv.append(metrics.toCsv()).append('\n');
+        return csv.toString();
+    }
+
+    public void addOnMetricsListener(OnMetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeOnMetricsListener(OnMetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**Puts the metrics of the file before the ones recorded while it was loading*/
+    private void load() {
+        if(!file.exists()) return;
+        List<CallMetrics> loaded = new ArrayList<>();
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+            String line;
+            while((line = in.readLine()) != null) {
+                fileLines++;
+                CallMetrics metrics = CallMetrics.fromCsv(line);
+                if(metrics != null) loaded.add(metrics);
+            }
+        } catch(IOException e) {
+            Log.e(TAG, "Cannot load the metrics: " + e.getMessage());
+        } finally {
+            close(in);
+        }
+
+        synchronized(buffer) {
+            for(int i = loaded.size() - 1; i >= 0 && buffer.size() < CAPACITY; i--)
+                buffer.addFirst(loaded.get(i));
+        }
+    }
+
+    private void append(CallMetrics metrics, long seq) {
+        //already written by a rewrite
+        if(seq <= written) return;
+        if(fileLines >= 2 * CAPACITY) {
+            rewrite();
+            return;
+        }
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(file, true), CHARSET);
+            out.write(metrics.toCsv() + "\n");
+            fileLines++;
+            written = seq;
+        } catch(IOException e) {
+            Log.e(TAG, "Cannot save the metrics: " + e.getMessage());
+        } finally {
+            close(out);
+        }
+    }
+
+    /**Replaces the file with the content of the buffer, which includes all the metrics not written yet*/
+    private void rewrite() {
+        List<CallMetrics> metrics;
+        long seq;
+        synchronized(buffer) {
+            metrics = new ArrayList<>(buffer);
+            seq = recorded;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), CHARSET));
+            for(CallMetrics m : metrics)
+                out.write(m.toCsv() + "\n");
+            out.close();
+            out = null;
+            if(!tmp.renameTo(file))
+                throw new IOException("Cannot rename " + tmp);
+            fileLines = metrics.size();
+            written = seq;
+        } catch(IOException e) {
+            Log.e(TAG, "Cannot compact the metrics: " + e.getMessage());
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void close(Closeable c) {
+        if(c == null) return;
+        try {
+            c.close();
+        } catch(IOException ignored) {
+        }
+    }
+
+    /**Listener of the recorded metrics*/
+    public interface OnMetricsListener {
+        void onMetrics(CallMetrics metrics);
+    }
+}
@@ -0,0 +1,340 @@
+package com.bamless.chromiumsweupdater.models;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.bamless.chromiumsweupdater.utils.Constants;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process wide store of the update state (build dates, validators of the files fetched from the
+ * repo, mirrors without a manifest and the artifact selected from the manifest). The
+ * state is loaded from the {@link SharedPreferences} once and kept in memory already parsed;
+ * changes are written through asynchronously. Listeners are notified of changes on the main thread.
+ */
+public class UpdateStateStore {
+    /**Shared prefs name and shared prefs keys*/
+    private static final String BUILD_PREFS = "buildPrefs";
+    private static final String BUILD_LASTBUILD_INST = "lastbuild";
+    private static final String BUILD_LASTBUILD_FETCHED = "lastbuildFetched";
+    /**Prefixes of the keys of the validators, followed by the resource they belong to*/
+    private static final String ETAG_PREFIX = "etag:";
+    private static final String LAST_MODIFIED_PREFIX = "lastModified:";
+    /**Validators shared by every file, used by the older versions*/
+    private static final String LEGACY_ETAG = "buildFileEtag";
+    private static final String LEGACY_LAST_MODIFIED = "buildFileLastModified";
+    /**Prefix of the keys of the times until which a mirror is known to have no manifest*/
+    private static final String NO_MANIFEST_PREFIX = "noManifestUntil:";
+    private static final String ARTIFACT_ABI = "artifactAbi";
+    private static final String ARTIFACT_BUILD = "artifactBuild";
+    private static final String ARTIFACT_PATH = "artifactPath";
+    private static final String ARTIFACT_SIZE = "artifactSize";
+    private static final String ARTIFACT_SHA256 = "artifactSha256";
+    private static final String PREFETCH_ENABLED = "prefetchEnabled";
+    private static final String PENDING_BUILD = "pendingBuild";
+    private static final String PENDING_PACKAGE = "pendingPackage";
+    private static final String PENDING_VERSION_CODE = "pendingVersionCode";
+    private static final String PENDING_SINCE = "pendingSince";
+    private static final String INSTALLED_PACKAGE = "installedPackage";
+
+    /**Channel of the manifest followed, the only one for now*/
+    public static final String CHANNEL = "stable";
+
+    private static UpdateStateStore instance;
+
+    private final SharedPreferences prefs;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<OnStateChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile BuildDate latestBuildDate;
+    private volatile BuildDate installedBuildDate;
+    /**The validators by prefs key*/
+    private final Map<String, String> validators = new ConcurrentHashMap<>();
+    /**The times until which the mirrors are known to have no manifest, by prefs key*/
+    private final Map<String, Long> noManifestUntil = new ConcurrentHashMap<>();
+    private volatile Artifact latestArtifact;
+    private volatile boolean prefetchEnabled;
+    private volatile BuildDate pendingBuildDate;
+    private volatile String pendingPackage;
+    private volatile int pendingVersionCode;
+    private volatile long pendingSince;
+    private volatile String installedPackage;
+
+    private UpdateStateStore(Context context) {
+        prefs = context.getSharedPreferences(BUILD_PREFS, Context.MODE_PRIVATE);
+        latestBuildDate = BuildDate.parseBuildTime(prefs.getString(BUILD_LASTBUILD_FETCHED, Constants.EPOCH));
+        installedBuildDate = BuildDate.parseBuildTime(prefs.getString(BUILD_LASTBUILD_INST, Constants.EPOCH));
+        loadPerResourceState();
+        latestArtifact = loadArtifact();
+        prefetchEnabled = prefs.getBoolean(PREFETCH_ENABLED, false);
+        String pending = prefs.getString(PENDING_BUILD, null);
+        if(pending != null) {
+            pendingBuildDate = BuildDate.parseBuildTime(pending);
+            pendingPackage = prefs.getString(PENDING_PACKAGE, null);
+            pendingVersionCode = prefs.getInt(PENDING_VERSION_CODE, 0);
+            pendingSince = prefs.getLong(PENDING_SINCE, 0);
+        }
+        installedPackage = prefs.getString(INSTALLED_PACKAGE, null);
+    }
+
+    /**Loads the validators and the missing manifests, whose keys depend on the resource*/
+    private void loadPerResourceState() {
+        for(Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            String key = entry.getKey();
+            if(key.startsWith(ETAG_PREFIX) || key.startsWith(LAST_MODIFIED_PREFIX))
+                validators.put(key, (String) entry.getValue());
+            else if(key.startsWith(NO_MANIFEST_PREFIX))
+                noManifestUntil.put(key, (Long) entry.getValue());
+        }
+        //they can't tell which file they belong to
+        if(prefs.contains(LEGACY_ETAG) || prefs.contains(LEGACY_LAST_MODIFIED))
+            prefs.edit().remove(LEGACY_ETAG).remove(LEGACY_LAST_MODIFIED).apply();
+    }
+
+    private Artifact loadArtifact() {
+        String path = prefs.getString(ARTIFACT_PATH, null);
+        if(path == null) return null;
+        return new Artifact(CHANNEL, prefs.getString(ARTIFACT_ABI, Artifact.ABI_UNIVERSAL),
+                BuildDate.parseBuildTime(prefs.getString(ARTIFACT_BUILD, Constants.EPOCH)), path,
+                prefs.getLong(ARTIFACT_SIZE, -1), prefs.getString(ARTIFACT_SHA256, null));
+    }
+
+    /**@return the store, loading it on the first call*/
+    public static synchronized UpdateStateStore getInstance(Context context) {
+        if(instance == null)
+            instance = new UpdateStateStore(context.getApplicationContext());
+        return instance;
+    }
+
+    /**@return the date of the latest build fetched from the repo*/
+    public BuildDate getLatestBuildDate() {
+        return latestBuildDate;
+    }
+
+    public void setLatestBuildDate(BuildDate buildDate) {
+        latestBuildDate = buildDate;
+        prefs.edit().putString(BUILD_LASTBUILD_FETCHED, buildDate.toString()).apply();
+        notifyStateChanged();
+    }
+
+    /**@return the date of the last build installed*/
+    public BuildDate getInstalledBuildDate() {
+        return installedBuildDate;
+    }
+
+    public void setInstalledBuildDate(BuildDate buildDate) {
+        installedBuildDate = buildDate;
+        prefs.edit().putString(BUILD_LASTBUILD_INST, buildDate.toString()).apply();
+        notifyStateChanged();
+    }
+
+    /**
+     * @param resource the file the validator belongs to, e.g. its url
+     * @return the ETag of the last version of the file fetched, null if none
+     */
+    public String getEtag(String resource) {
+        return validators.get(ETAG_PREFIX + resource);
+    }
+
+    /**
+     * @param resource the file the validator belongs to, e.g. its url
+     * @return the Last-Modified date of the last version of the file fetched, null if none
+     */
+    public String getLastModified(String resource) {
+        return validators.get(LAST_MODIFIED_PREFIX + resource);
+    }
+
+    /**
+     * Saves the validators of the last version of a file fetched. They are kept per file: the
+     * validators of a file (or of a mirror) would make a conditional request for another one
+     * wrongly answered as not modified.
+     * @param resource the file the validators belong to, e.g. its url
+     */
+    public void setValidators(String resource, String etag, String lastModified) {
+        SharedPreferences.Editor editor = prefs.edit();
+        putValidator(editor, ETAG_PREFIX + resource, etag);
+        putValidator(editor, LAST_MODIFIED_PREFIX + resource, lastModified);
+        editor.apply();
+    }
+
+    private void putValidator(SharedPreferences.Editor editor, String key, String value) {
+        if(value != null) {
+            validators.put(key, value);
+            editor.putString(key, value);
+        } else {
+            validators.remove(key);
+            editor.remove(key);
+        }
+    }
+
+    /**
+     * @param mirror the mirror, e.g. its base url
+     * @return true if the mirror was recently found to have no manifest, see
+     *         {@link #setManifestMissing(String, long)}
+     */
+    public boolean isManifestMissing(String mirror) {
+        Long until = noManifestUntil.get(NO_MANIFEST_PREFIX + mirror);
+        return until != null && System.currentTimeMillis() < until;
+    }
+
+    /**
+     * Records that a mirror doesn't publish a manifest, so that it isn't asked for it again (and
+     * the legacy build file is fetched right away) until the given time.
+     * @param mirror the mirror, e.g. its base url
+     * @param until the time (in milliseconds) after which the manifest is looked for again
+     */
+    public void setManifestMissing(String mirror, long until) {
+        noManifestUntil.put(NO_MANIFEST_PREFIX + mirror, until);
+        prefs.edit().putLong(NO_MANIFEST_PREFIX + mirror, until).apply();
+    }
+
+    /**@return the update channel followed*/
+    public String getChannel() {
+        return CHANNEL;
+    }
+
+    /**
+     * @return the artifact selected from the manifest by the last check, null if the repo doesn't
+     *         publish a manifest (i.e. the apk is the legacy one)
+     */
+    public Artifact getLatestArtifact() {
+        return latestArtifact;
+    }
+
+    /**Saves the artifact selected from the manifest, null to fall back to the legacy apk*/
+    public void setLatestArtifact(Artifact artifact) {
+        latestArtifact = artifact;
+
+        SharedPreferences.Editor editor = prefs.edit();
+        if(artifact == null) {
+            editor.remove(ARTIFACT_PATH);
+        } else {
+            editor.putString(ARTIFACT_ABI, artifact.getAbi())
+                    .putString(ARTIFACT_BUILD, artifact.getBuild().toString())
+                    .putString(ARTIFACT_PATH, artifact.getPath())
+                    .putLong(ARTIFACT_SIZE, artifact.getSize())
+                    .putString(ARTIFACT_SHA256, artifact.getSha256());
+        }
+        editor.apply();
+    }
+
+    /**@return true if new builds should be downloaded in background, before the user asks to update*/
+    public boolean isPrefetchEnabled() {
+        return prefetchEnabled;
+    }
+
+    public void setPrefetchEnabled(boolean prefetchEnabled) {
+        this.prefetchEnabled = prefetchEnabled;
+        prefs.edit().putBoolean(PREFETCH_ENABLED, prefetchEnabled).apply();
+    }
+
+    /**
+     * @return the build handed to the package installer whose installation wasn't confirmed yet,
+     *         null if none
+     */
+    public BuildDate getPendingBuildDate() {
+        return pendingBuildDate;
+    }
+
+    /**@return the package name of the pending build, null if none*/
+    public String getPendingPackage() {
+        return pendingPackage;
+    }
+
+    /**@return the versionCode of the pending build*/
+    public int getPendingVersionCode() {
+        return pendingVersionCode;
+    }
+
+    /**@return when the pending build was handed to the package installer (in milliseconds)*/
+    public long getPendingSince() {
+        return pendingSince;
+    }
+
+    /**
+     * Saves the build handed to the package installer. It becomes the installed build only once the
+     * installation is confirmed, see {@link #completePendingInstall()}.
+     */
+    public void setPendingInstall(BuildDate buildDate, String packageName, int versionCode) {
+        pendingBuildDate = buildDate;
+        pendingPackage = packageName;
+        pendingVersionCode = versionCode;
+        pendingSince = System.currentTimeMillis();
+        prefs.edit()
+                .putString(PENDING_BUILD, buildDate.toString())
+                .putString(PENDING_PACKAGE, packageName)
+                .putInt(PENDING_VERSION_CODE, versionCode)
+                .putLong(PENDING_SINCE, pendingSince)
+                .apply();
+    }
+
+    /**
+     * @return the package name of the last build installed through the updater, null if none. The
+     *         apks of the next builds are expected to have the same one
+     */
+    public String getInstalledPackage() {
+        return installedPackage;
+    }
+
+    /**
+     * Marks the pending build as the installed one.
+     * @return the build installed, null if there was no pending build
+     */
+    public synchronized BuildDate completePendingInstall() {
+        BuildDate buildDate = pendingBuildDate;
+        if(buildDate == null) return null;
+        if(pendingPackage != null) {
+            installedPackage = pendingPackage;
+            prefs.edit().putString(INSTALLED_PACKAGE, installedPackage).apply();
+        }
+        clearPendingInstall();
+        setInstalledBuildDate(buildDate);
+        return buildDate;
+    }
+
+    /**Forgets the pending build, e.g. because its installation failed or was cancelled*/
+    public void clearPendingInstall() {
+        pendingBuildDate = null;
+        pendingPackage = null;
+        prefs.edit()
+                .remove(PENDING_BUILD)
+                .remove(PENDING_PACKAGE)
+                .remove(PENDING_VERSION_CODE)
+                .remove(PENDING_SINCE)
+                .apply();
+    }
+
+    /**@return true if the latest build fetched is newer than the installed one*/
+    public boolean isUpdateAvailable() {
+        return installedBuildDate.compareTo(latestBuildDate) < 0;
+    }
+
+    public void addOnStateChangeListener(OnStateChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeOnStateChangeListener(OnStateChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyStateChanged() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for(OnStateChangeListener listener : listeners)
+                    listener.onStateChanged(UpdateStateStore.this);
+            }
+        });
+    }
+
+    /**Listener notified (on the main thread) when the build dates change*/
+    public interface OnStateChangeListener {
+        void onStateChanged(UpdateStateStore store);
+    }
+}
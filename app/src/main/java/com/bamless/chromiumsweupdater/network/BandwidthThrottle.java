@@ -0,0 +1,169 @@
+package com.bamless.chromiumsweupdater.network;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Token bucket limiting the bandwidth of one or more transfers (see {@link ThrottledSource}).
+ * Tokens (bytes) accumulate at the configured rate, up to a second worth of transfer, and a read
+ * waits until enough tokens are available. The rate can be changed at any time, even while a
+ * transfer is waiting. A throttle with background priority also slows down to
+ * {@link #BACKGROUND_RATE} whenever the rest of the device is using the network, so that it
+ * doesn't compete with the apps in use.
+ */
+public class BandwidthThrottle {
+    /**Rate of a throttle that doesn't limit the bandwidth*/
+    public final static long UNLIMITED = 0;
+    /**Max rate of a background transfer while other traffic is detected (bytes per second)*/
+    public final static long BACKGROUND_RATE = 64 * 1024;
+    /**Rate of the other traffic above which a background transfer slows down (bytes per second)*/
+    private final static long CONTENTION_THRESHOLD = 32 * 1024;
+    /**Interval at which the other traffic is sampled (in nanoseconds)*/
+    private final static long TRAFFIC_SAMPLE_INTERVAL = 1000000000L;
+    /**Bytes a read waits for when the bucket is empty, and minimum size of the bucket*/
+    private final static long QUANTUM = 8192;
+    /**Bounds of the time a read waits before checking the bucket again (in nanoseconds)*/
+    private final static long MIN_WAIT = 1000000L;
+    private final static long MAX_WAIT = 100000000L;
+
+    private final Clock clock;
+    private volatile long rate;
+    private volatile TrafficCounter otherTraffic;
+
+    /**State of the bucket, guarded by this*/
+    private double tokens;
+    private long lastRefill;
+    /**State of the sampling of the other traffic, guarded by this*/
+    private long lastTrafficSample;
+    private long lastTrafficBytes = -1;
+    private boolean contended;
+
+    /**@param rate max rate in bytes per second, or {@link #UNLIMITED}*/
+    public BandwidthThrottle(long rate) {
+        this(rate, Clock.SYSTEM);
+    }
+
+    /**
+     * @param rate max rate in bytes per second, or {@link #UNLIMITED}
+     * @param clock the clock the bucket is refilled with
+     */
+    public BandwidthThrottle(long rate, Clock clock) {
+        this.clock = clock;
+        this.lastRefill = clock.nanoTime();
+        setRate(rate);
+    }
+
+    /**
+     * Changes the max rate. Takes effect immediately, also on the running transfers.
+     * @param rate max rate in bytes per second, or {@link #UNLIMITED}
+     */
+    public void setRate(long rate) {
+        if(rate < 0)
+            throw new IllegalArgumentException("rate must not be negative");
+        this.rate = rate;
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    /**
+     * Sets the priority of the throttle.
+     * @param otherTraffic counter of the bytes transferred by the rest of the device, for background
+     *                     priority. null for foreground priority
+     */
+    public void setBackground(TrafficCounter otherTraffic) {
+        this.otherTraffic = otherTraffic;
+    }
+
+    /**
+     * Waits until some bytes can be transferred.
+     * @param byteCount the bytes the caller would like to transfer
+     * @return the bytes that can be transferred, between 1 and byteCount
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public long acquire(long byteCount) throws InterruptedIOException {
+        //nothing to account for, this is the only cost of an unlimited throttle
+        if(rate == UNLIMITED && otherTraffic == null) return byteCount;
+
+        while(true) {
+            long wait;
+            synchronized(this) {
+                long now = clock.nanoTime();
+                long limit = effectiveRate(now);
+                refill(now, limit);
+                if(limit == UNLIMITED) return byteCount;
+
+                long wanted = Math.min(byteCount, QUANTUM);
+                if(tokens >= wanted) {
+                    long granted = (long) Math.min(byteCount, tokens);
+                    tokens -= granted;
+                    return granted;
+                }
+                wait = (long) ((wanted - tokens) * 1e9 / limit);
+            }
+
+            try {
+                clock.sleep(Math.max(MIN_WAIT, Math.min(wait, MAX_WAIT)));
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Throttled transfer interrupted");
+            }
+        }
+    }
+
+    /**Gives back the bytes acquired but not transferred*/
+    public void release(long byteCount) {
+        if(rate == UNLIMITED && otherTraffic == null) return;
+        synchronized(this) {
+            tokens += byteCount;
+        }
+    }
+
+    private void refill(long now, long limit) {
+        if(limit != UNLIMITED) {
+            double capacity = Math.max(limit, QUANTUM);
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * limit / 1e9);
+        }
+        lastRefill = now;
+    }
+
+    /**Returns the rate limit, lowered if the throttle is in background and the network is in use*/
+    private long effectiveRate(long now) {
+        TrafficCounter counter = otherTraffic;
+        if(counter == null) return rate;
+
+        if(lastTrafficBytes < 0 || now - lastTrafficSample >= TRAFFIC_SAMPLE_INTERVAL) {
+            long bytes = counter.totalBytes();
+            if(lastTrafficBytes >= 0 && bytes >= 0)
+                contended = (bytes - lastTrafficBytes) * 1e9 / (now - lastTrafficSample) > CONTENTION_THRESHOLD;
+            lastTrafficBytes = bytes;
+            lastTrafficSample = now;
+        }
+        if(!contended) return rate;
+        return rate == UNLIMITED ? BACKGROUND_RATE : Math.min(rate, BACKGROUND_RATE);
+    }
+
+    /**Source of time of the throttle, replaceable to test it without actually waiting*/
+    public interface Clock {
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void sleep(long nanos) throws InterruptedException {
+                Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+            }
+        };
+
+        long nanoTime();
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    /**Counter of the bytes transferred by the rest of the device*/
+    public interface TrafficCounter {
+        /**@return the bytes transferred so far, -1 if unknown*/
+        long totalBytes();
+    }
+}
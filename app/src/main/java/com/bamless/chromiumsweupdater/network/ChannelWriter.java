@@ -0,0 +1,65 @@
+package com.bamless.chromiumsweupdater.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import okio.BufferedSource;
+
+/**
+ * Writes a {@link BufferedSource} straight into a {@link FileChannel} with positional writes, one
+ * segment at a time, without going through an intermediate {@link okio.Sink} and its buffer.
+ * Multiple writers can write different regions of the same channel concurrently.
+ */
+public class ChannelWriter {
+    /**Size of the chunks copied from the source, matches the size of an Okio segment*/
+    private final static int CHUNK_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+    private long position;
+
+    /**
+     * @param channel the channel to write to
+     * @param position the position in the channel of the first byte written
+     */
+    public ChannelWriter(FileChannel channel, long position) {
+        this.channel = channel;
+        this.position = position;
+    }
+
+    /**
+     * Writes the source until it is exhausted.
+     * @param listener called after each chunk has been written. Can be null
+     * @return the number of bytes written
+     */
+    public long writeAll(BufferedSource source, ChunkListener listener) throws IOException {
+        long written = 0;
+        int read;
+        while((read = source.read(chunk)) != -1) {
+            chunkBuffer.clear();
+            chunkBuffer.limit(read);
+            while(chunkBuffer.hasRemaining())
+                position += channel.write(chunkBuffer, position);
+            written += read;
+            if(listener != null) listener.onChunk(chunk, read);
+        }
+        return written;
+    }
+
+    /**@return the position of the next byte to be written. Valid even if a write failed*/
+    public long getPosition() {
+        return position;
+    }
+
+    /**Listener of the chunks written to the channel*/
+    public interface ChunkListener {
+        /**
+         * Called after a chunk has been written.
+         * @param chunk the buffer containing the chunk. Its content is valid only during the call
+         * @param length the length of the chunk
+         */
+        void onChunk(byte[] chunk, int length) throws IOException;
+    }
+}
@@ -3,26 +3,40 @@ package com.bamless.chromiumsweupdater.network;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.TrafficStats;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.v4.content.FileProvider;
 import android.util.Log;
 
+import com.bamless.chromiumsweupdater.install.ApkValidator;
+import com.bamless.chromiumsweupdater.install.SessionInstaller;
+import com.bamless.chromiumsweupdater.models.Artifact;
 import com.bamless.chromiumsweupdater.models.BuildDate;
+import com.bamless.chromiumsweupdater.models.Manifest;
+import com.bamless.chromiumsweupdater.models.UpdateStateStore;
+import com.bamless.chromiumsweupdater.utils.ApkCache;
+import com.bamless.chromiumsweupdater.utils.BsPatch;
 import com.bamless.chromiumsweupdater.utils.Constants;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okio.BufferedSink;
+import okio.ByteString;
 import okio.Okio;
 
 /**
@@ -31,150 +45,628 @@ import okio.Okio;
 public class ChromiumUpdater {
     private final static String TAG = ChromiumUpdater.class.getSimpleName();
 
-    /**Shared prefs name and shared prefs keys*/
-    private static final String BUILD_PREFS = "buildPrefs";
-    private static final String BUILD_LASTBUILD_INST = "lastbuild";
-    private static final String BUILD_LASTBUILD_FETCHED = "lastbuildFetched";
+    private final static int HTTP_NOT_MODIFIED = 304;
+    private final static int HTTP_NOT_FOUND = 404;
+    private final static int HTTP_SERVER_ERROR = 500;
 
     /**Base address*/
     private final static String REPO = "https://github.com/bamless/chromium-swe-builds/raw/master/";
+    /**Mirrors used if none are given*/
+    public final static List<String> DEFAULT_MIRRORS = Collections.singletonList(REPO);
     /**Name of the APK*/
     private final static String CHROMIUM_SWE_APK = "chromium-swe.apk";
     /**Name of the build file containing date and hour of last build*/
     private final static String BUILD_FILE = "build";
+    /**Name of the manifest listing the APKs of every channel and ABI, see {@link Manifest}*/
+    private final static String MANIFEST_FILE = "manifest.json";
+    /**Time after which a mirror without a manifest is asked for it again (in milliseconds)*/
+    private final static long MANIFEST_RETRY = Constants.DAY_INTERVAL;
+    /**Name of the file containing the SHA-256 of the APK (when there is no manifest)*/
+    private final static String CHECKSUM_FILE = CHROMIUM_SWE_APK + ".sha256";
+    /**Directory of the binary patches between builds and their extension*/
+    private final static String PATCHES_DIR = "patches/";
+    private final static String PATCH_EXT = ".bsdiff";
+    /**Default number of parallel connections used to download the APK*/
+    public final static int DEFAULT_DOWNLOAD_SEGMENTS = 4;
+
+    /**Counts the bytes received by the device, except the ones received by this app*/
+    private final static BandwidthThrottle.TrafficCounter OTHER_APPS_TRAFFIC = new BandwidthThrottle.TrafficCounter() {
+        @Override
+        public long totalBytes() {
+            long total = TrafficStats.getTotalRxBytes();
+            long own = TrafficStats.getUidRxBytes(Process.myUid());
+            return total == TrafficStats.UNSUPPORTED || own == TrafficStats.UNSUPPORTED ? -1 : total - own;
+        }
+    };
+
+    /**Executors on which the update checks and the downloads are run*/
+    private final static ExecutorService checkExecutor = Executors.newSingleThreadExecutor();
+    private final static ExecutorService downloadExecutor = Executors.newSingleThreadExecutor();
 
-    /**Downloading progress listener*/
-    private ProgressResponseBody.ProgressListener progressListener;
     private OkHttpClient http;
     private Context context;
+    private UpdateStateStore state;
+    private ApkCache cache;
+    private MirrorSelector mirrors;
+    /**Number of parallel connections used to download the APK*/
+    private int downloadSegments = DEFAULT_DOWNLOAD_SEGMENTS;
+    /**Interval at which the download progress is published*/
+    private long progressInterval = ProgressSampler.DEFAULT_INTERVAL;
+    /**Limits the bandwidth of the downloads, unlimited by default*/
+    private final BandwidthThrottle throttle = new BandwidthThrottle(BandwidthThrottle.UNLIMITED);
+    /**Retries the requests that fail transiently*/
+    private RetryPolicy retryPolicy = new RetryPolicy();
 
     public ChromiumUpdater(Context context) {
-        this.context = context;
-        init();
+        this(context, DEFAULT_MIRRORS);
     }
 
-    private void init() {
-        http = new OkHttpClient.Builder().addNetworkInterceptor(new Interceptor() {
-            @Override
-            public Response intercept(Chain chain) throws IOException {
-                Response originalResponse = chain.proceed(chain.request());
-                return originalResponse.newBuilder()
-                        .body(new ProgressResponseBody(originalResponse.body(), progressListener))
-                        .build();
-            }
-        }).build();
+    /**
+     * @param mirrors base urls of the mirrors of the repo. Every request goes to the best mirror,
+     *                failing over to the next ones on error (see {@link MirrorSelector})
+     */
+    public ChromiumUpdater(Context context, List<String> mirrors) {
+        this.context = context;
+        this.state = UpdateStateStore.getInstance(context);
+        this.cache = ApkCache.getInstance(context);
+        this.http = HttpClientProvider.get(context);
+        //the build file is published by every version of the repo, unlike the manifest
+        this.mirrors = new MirrorSelector(http, mirrors, BUILD_FILE);
     }
 
     /**
      * It checks if an update is available (asynchronously) from the repo updating the date of the
      * latest build available. The returncallback's method gets called in the calling thread as a
      * post runnable using a {@link Handler}. This method should be called before
-     * {@link ChromiumUpdater#update(File, ProgressResponseBody.ProgressListener, ReturnCallback)}
-     * is called.
+     * {@link ChromiumUpdater#update(ProgressSampler.Listener, ReturnCallback)}
+     * is called. The build is selected from the repo's manifest, picking the artifact of the
+     * channel followed (see {@link UpdateStateStore#getChannel()}) that best fits the ABIs of the
+     * device. If the repo doesn't publish a manifest the legacy build file is used instead, and
+     * the manifest isn't looked for again on that mirror for a day.
+     * The request is conditional on the ETag/Last-Modified of the last file fetched, so that it
+     * isn't downloaded and parsed again if it didn't change.
      * @param returnCallback Callback for returning a value. It returns true if there is an update,
      *                       false if not. returns null if check failed.
      * @see ChromiumUpdater#getLatestBuildDate()
      */
     public void checkForUpdate(final ReturnCallback<Boolean> returnCallback) {
-        setProgressListener(null);
-        Request request = new Request.Builder()
-                .url(REPO + BUILD_FILE)
-                .get().build();
-
         final Handler handler = new Handler();
-        http.newCall(request).enqueue(new Callback() {
+        checkExecutor.execute(new Runnable() {
             @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Failed to check the update", e);
-                returnOnCallingThread(handler, returnCallback, null);
+            public void run() {
+                reconcilePendingInstall();
+                Boolean updateAvailable;
+                try {
+                    updateAvailable = withFailover(new MirrorCall<Boolean>() {
+                        @Override
+                        public Boolean call(MirrorSelector.Mirror mirror) throws IOException {
+                            return fetchLatestBuild(mirror);
+                        }
+                    });
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to check the update", e);
+                    updateAvailable = null;
+                }
+                returnOnCallingThread(handler, returnCallback, updateAvailable);
             }
+        });
+    }
 
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if(response == null) {
-                    Log.e(TAG, "Failed to check the update");
-                    returnOnCallingThread(handler, returnCallback, null);
-                    return;
+    /**
+     * Fetches the latest build (synchronously) from the manifest, or from the legacy build file
+     * if there is no manifest.
+     * @return true if the latest build is newer than the installed one
+     */
+    private boolean fetchLatestBuild(MirrorSelector.Mirror mirror) throws IOException {
+        //a mirror found without a manifest isn't asked for it again for a while
+        boolean legacy = state.isManifestMissing(mirror.getBaseUrl());
+        String path = legacy ? BUILD_FILE : MANIFEST_FILE;
+        String resource = validatorsKey(mirror, path);
+        Response response = http.newCall(conditionalGet(mirror.url(path), resource)).execute();
+        try {
+            if(!legacy && response.code() == HTTP_NOT_FOUND) {
+                Log.d(TAG, "No manifest available, falling back to the build file");
+                state.setManifestMissing(mirror.getBaseUrl(), System.currentTimeMillis() + MANIFEST_RETRY);
+                response.close();
+                resource = validatorsKey(mirror, BUILD_FILE);
+                response = http.newCall(conditionalGet(mirror.url(BUILD_FILE), resource)).execute();
+                legacy = true;
+            }
+            if(response.code() >= HTTP_SERVER_ERROR)
+                throw new HttpStatusException("Failed to check the update", response);
+            mirrors.reportSuccess(mirror, response.receivedResponseAtMillis()
+                    - response.sentRequestAtMillis(), 0, 0);
+            mirrors.resolve(mirror, response.request().url().toString(), legacy ? BUILD_FILE : MANIFEST_FILE);
+
+            //the file didn't change since it was last fetched from this mirror
+            if(response.code() == HTTP_NOT_MODIFIED)
+                return state.isUpdateAvailable();
+            if(!response.isSuccessful())
+                throw new HttpStatusException("Failed to check the update", response);
+
+            Artifact artifact = null;
+            BuildDate buildFromRepo;
+            if(legacy) {
+                try {
+                    buildFromRepo = BuildDate.parseBuildTime(response.body().string());
+                } catch(IllegalArgumentException e) {
+                    throw new IOException("Malformed build file", e);
                 }
+            } else {
+                String[] abis = getSupportedAbis();
+                artifact = Manifest.selectArtifact(response.body().charStream(), state.getChannel(), abis);
+                if(artifact == null)
+                    throw new IOException("No artifact for channel " + state.getChannel()
+                            + " and ABIs " + Arrays.toString(abis));
+                buildFromRepo = artifact.getBuild();
+            }
+            state.setValidators(resource, response.header("ETag"), response.header("Last-Modified"));
+            state.setLatestArtifact(artifact);
 
-                BuildDate currBuild = getInstalledBuildDate();
-                BuildDate buildFromRepo = BuildDate.parseBuildTime(response.body().string().replace("\n", ""));
-
-                if(currBuild.compareTo(buildFromRepo) < 0) {
-                    setLatestBuildDate(buildFromRepo);
-                    returnOnCallingThread(handler, returnCallback, true);
-                } else {
-                    returnOnCallingThread(handler, returnCallback, false);
-                }
+            if(getInstalledBuildDate().compareTo(buildFromRepo) < 0) {
+                state.setLatestBuildDate(buildFromRepo);
+                return true;
             }
-        });
+            return false;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * @return the key of the validators of a file of a mirror. The base url is used, rather than
+     *         the resolved one, so that they survive a change of the redirect
+     */
+    private static String validatorsKey(MirrorSelector.Mirror mirror, String path) {
+        return mirror.getBaseUrl() + path;
+    }
+
+    /**@return a GET request conditional on the validators of the version of the file last fetched*/
+    private Request conditionalGet(String url, String resource) {
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .get();
+        String etag = state.getEtag(resource);
+        String lastModified = state.getLastModified(resource);
+        if(etag != null)
+            request.header("If-None-Match", etag);
+        if(lastModified != null)
+            request.header("If-Modified-Since", lastModified);
+        return request.build();
+    }
+
+    /**@return the ABIs supported by the device, in order of preference*/
+    @SuppressWarnings("deprecation")
+    private static String[] getSupportedAbis() {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            return Build.SUPPORTED_ABIS;
+        if(Build.CPU_ABI2.isEmpty() || Build.CPU_ABI2.equals("unknown"))
+            return new String[] {Build.CPU_ABI};
+        return new String[] {Build.CPU_ABI, Build.CPU_ABI2};
     }
 
     /**
      * Downloads and install the latest Chromium SWE apk (asynchronously). The returncallback's method 
      * gets called in the calling thread as a post runnable using a {@link Handler}.
      * If the latest build date fetched is not newer than the build installed, the function do not
-     * execute and fails.
-     * @param downloadPath The patch to which the apk will be downloaded
-     * @param progressListener listener for the download progress
+     * execute and fails. The apk is kept in the {@link ApkCache}: if the latest build is already
+     * there nothing is downloaded. Otherwise the apk is downloaded over {@link #setDownloadSegments(int)} parallel
+     * connections when the server supports byte ranges. If a previous download was interrupted
+     * it gets resumed instead. If the repo publishes the SHA-256 of the apk, the download is
+     * verified against it and deleted on mismatch. In that case, if the apk of the installed build
+     * is still cached and the repo has a patch from the installed build to the latest one, only
+     * the patch is downloaded and applied. When the repo publishes a manifest, only the apk
+     * of the artifact selected by the last check is downloaded. If a mirror fails the download
+     * continues on the next one, resuming from what was already downloaded when possible. If all the
+     * mirrors fail transiently the download is retried according to the {@link RetryPolicy}.
+     * The apk is validated (see {@link ApkValidator}) before the installer is launched. On Lollipop
+     * and later it's installed through a {@link SessionInstaller}, and a download on a single
+     * stream is copied to the install session while it runs.
+     * @param progressListener listener for the download progress, sampled every
+     *                         {@link #setProgressInterval(long)} milliseconds. Can be null
      * @param returnCallback callback for returning a value. It returns true if the update succeeded,
      *                       false if it failed.
+     * @see ResumableDownload
+     * @see SegmentedDownload
      */
-    public void update(final File downloadPath, ProgressResponseBody.ProgressListener progressListener,
-                       final ReturnCallback<Boolean> returnCallback) {
+    public void update(ProgressSampler.Listener progressListener, ReturnCallback<Boolean> returnCallback) {
+        download(progressListener, true, returnCallback);
+    }
+
+    /**
+     * Downloads the latest Chromium SWE apk (asynchronously) without installing it, e.g. to have it
+     * ready before the user asks for the update. Works like
+     * {@link #update(ProgressSampler.Listener, ReturnCallback)}, the apk can then be installed
+     * with {@link #installCached(ReturnCallback)}.
+     */
+    public void download(ProgressSampler.Listener progressListener, ReturnCallback<Boolean> returnCallback) {
+        download(progressListener, false, returnCallback);
+    }
+
+    private void download(ProgressSampler.Listener progressListener, final boolean install,
+                          final ReturnCallback<Boolean> returnCallback) {
         //stops if the latest build is not newer than the installed
-        if(!(getInstalledBuildDate().compareTo(getLatestBuildDate()) < 0)) {
+        if(!state.isUpdateAvailable()) {
             returnCallback.onReturn(false);
             return;
         }
 
-        setProgressListener(progressListener);
-        Request request = new Request.Builder()
-                            .url(REPO + CHROMIUM_SWE_APK)
-                            .get().build();
+        final BuildDate build = getLatestBuildDate();
+        final ProgressSampler sampler = progressListener == null ? null
+                : new ProgressSampler(progressListener, progressInterval);
+        final Handler handler = new Handler();
+        downloadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File apk = cache.get(build);
+                ApkValidator.ApkInfo info = null;
+                //the apk to install is streamed to an install session while it's downloaded
+                StreamedInstall stream = install ? new StreamedInstall() : null;
+                if(apk == null) {
+                    if(sampler != null) sampler.start();
+                    try {
+                        apk = cache.fileFor(build);
+                        downloadApk(apk, sampler, stream);
+                        info = validateApk(apk);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to download file: ", e);
+                        if(sampler != null) sampler.stop();
+                        if(stream != null) stream.abandon();
+                        returnOnCallingThread(handler, returnCallback, false);
+                        return;
+                    }
+                    if(sampler != null) sampler.finish();
+                    cache.put(build, getInstalledBuildDate());
+                } else {
+                    Log.d(TAG, "Build " + build + " already downloaded");
+                }
 
+                if(install) {
+                    try {
+                        if(info == null) info = validateApk(apk);
+                    } catch(IOException e) {
+                        Log.w(TAG, "The downloaded apk is not valid", e);
+                        returnOnCallingThread(handler, returnCallback, false);
+                        return;
+                    }
+                    install(build, apk, info, stream.session);
+                }
+                returnOnCallingThread(handler, returnCallback, true);
+            }
+        });
+    }
+
+    /**
+     * Installs the latest build (asynchronously) if it's already in the {@link ApkCache}, e.g.
+     * downloaded by {@link #download(ProgressSampler.Listener, ReturnCallback)}. The apk is
+     * validated and written to the install session on the download thread, the returncallback's
+     * method gets called in the calling thread as a post runnable using a {@link Handler}.
+     * @param returnCallback callback for returning a value. It returns true if the installation
+     *                       started, false if the latest build wasn't downloaded. Can be null
+     */
+    public void installCached(final ReturnCallback<Boolean> returnCallback) {
+        final BuildDate build = getLatestBuildDate();
         final Handler handler = new Handler();
-        http.newCall(request).enqueue(new Callback() {
+        downloadExecutor.execute(new Runnable() {
             @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Failed to download file: ", e);
-                returnOnCallingThread(handler, returnCallback, false);
+            public void run() {
+                File apk = cache.get(build);
+                boolean started = false;
+                if(state.isUpdateAvailable() && apk != null) {
+                    try {
+                        install(build, apk, validateApk(apk), null);
+                        started = true;
+                    } catch(IOException e) {
+                        Log.w(TAG, "The downloaded apk is not valid", e);
+                    }
+                }
+                if(returnCallback != null) returnOnCallingThread(handler, returnCallback, started);
             }
+        });
+    }
+
+    /**
+     * Hands the apk of the build to the package installer. The build becomes the installed one only
+     * once the installation succeeds, see {@link #completeInstall(Context)}: until then the update
+     * is still available, and the apk of the installed build stays in the cache.
+     */
+    private void install(BuildDate build, File apk, ApkValidator.ApkInfo info, SessionInstaller.Session session) {
+        state.setPendingInstall(build, info.getPackageName(), info.getVersionCode());
+        installUpdate(apk, session);
+    }
+
+    /**
+     * Called once the package installer installed the pending build. The build becomes the
+     * installed one and is kept in the cache as the base of the delta updates, while the apks of
+     * the older builds can be evicted. The latest build is kept as well, since it may be
+     * downloading right now.
+     */
+    public static void completeInstall(Context context) {
+        UpdateStateStore state = UpdateStateStore.getInstance(context);
+        BuildDate build = state.completePendingInstall();
+        if(build == null) return;
+        Log.d(TAG, "Build " + build + " installed");
+        ApkCache.getInstance(context).trim(build, state.getLatestBuildDate());
+    }
+
+    /**
+     * Completes the pending install if the package was updated since it was handed to the package
+     * installer. The installer UI used before Lollipop (or when the session fails) doesn't report
+     * its result, so the installed package is checked instead.
+     */
+    private void reconcilePendingInstall() {
+        String packageName = state.getPendingPackage();
+        if(packageName == null) return;
+        try {
+            PackageInfo installed = context.getPackageManager().getPackageInfo(packageName, 0);
+            if(installed.versionCode >= state.getPendingVersionCode()
+                    && installed.lastUpdateTime >= state.getPendingSince())
+                completeInstall(context);
+        } catch(PackageManager.NameNotFoundException e) {
+            //not installed yet
+        }
+    }
+
+    /**
+     * Downloads the apk (synchronously) from the best mirror, failing over to the others.
+     * @param stream the install session the apk is copied to if it's downloaded on a single stream.
+     *               Can be null
+     */
+    private void downloadApk(final File apk, final ProgressSampler sampler,
+                             final StreamedInstall stream) throws IOException {
+        Artifact artifact = state.getLatestArtifact();
+        final String path, patchesDir;
+        final ByteString sha256;
+        if(artifact != null) {
+            if(artifact.getSize() > apk.getParentFile().getUsableSpace())
+                throw new IOException("Not enough space to download " + artifact);
+            path = artifact.getPath();
+            patchesDir = PATCHES_DIR + artifact.getChannel() + "/" + artifact.getAbi() + "/";
+            sha256 = artifact.getSha256() == null ? null : parseChecksum(artifact.getSha256());
+            if(sha256 == null) Log.w(TAG, "No checksum in the manifest, the apk won't be verified");
+        } else {
+            path = CHROMIUM_SWE_APK;
+            patchesDir = PATCHES_DIR;
+            sha256 = withFailover(new MirrorCall<ByteString>() {
+                @Override
+                public ByteString call(MirrorSelector.Mirror mirror) throws IOException {
+                    return fetchChecksum(mirror);
+                }
+            });
+        }
+
+        //a patched apk can't be trusted without a checksum to verify it against
+        File base = cache.get(getInstalledBuildDate());
+        if(sha256 != null && base != null && applyDelta(base, apk, patchesDir, sha256, sampler))
+            return;
 
+        withFailover(new MirrorCall<Void>() {
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    Log.d(TAG,"Failed to download file: " + response);
-                    returnOnCallingThread(handler, returnCallback, false);
-                    return;
+            public Void call(MirrorSelector.Mirror mirror) throws IOException {
+                downloadApk(mirror, path, apk, sha256, sampler, stream);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Downloads the apk (synchronously) from a mirror, choosing between a segmented and a single
+     * stream download. A download interrupted on another mirror is resumed.
+     */
+    private void downloadApk(MirrorSelector.Mirror mirror, String path, File apk, ByteString sha256,
+                             ProgressSampler sampler, StreamedInstall stream) throws IOException {
+        String url = mirror.url(path);
+        ResumableDownload download = new ResumableDownload(http, url, apk);
+        download.setResourceKey(path);
+        download.setExpectedSha256(sha256);
+        download.setProgressSampler(sampler);
+        download.setThrottle(throttle);
+
+        boolean resume = download.canResume();
+        long resumedBytes = resume ? new File(apk.getPath() + ResumableDownload.PART_SUFFIX).length() : 0;
+        long start = SystemClock.elapsedRealtime();
+
+        //an interrupted download is resumed on a single stream
+        boolean done = false;
+        if(downloadSegments > 1 && !resume) {
+            SegmentedDownload segmented = new SegmentedDownload(http, url, apk,
+                    downloadSegments, sampler);
+            segmented.setExpectedSha256(sha256);
+            segmented.setThrottle(throttle);
+            segmented.setResourceKey(path);
+            done = segmented.execute();
+        }
+        if(!done) {
+            //only a download from the start of the file can be copied to the install session
+            SessionInstaller.Session session = stream != null && !resume ? stream.open() : null;
+            download.setTee(session);
+            try {
+                download.execute();
+            } catch(IOException e) {
+                if(session != null) stream.abandon();
+                throw e;
+            }
+        }
+
+        mirrors.reportSuccess(mirror, -1, apk.length() - resumedBytes, SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * Tries to update the apk (synchronously) by applying the patch from the installed build to the
+     * latest one, failing over to the other mirrors if the patch can't be downloaded. The mirrors
+     * aren't tried again after a delay: the full apk is downloaded instead.
+     * @param base the apk of the installed build
+     * @param apk where the latest apk is written on success
+     * @param patchesDir the directory of the repo containing the patches
+     * @param sha256 the expected SHA-256 of the latest apk
+     * @return true if the patch was applied, false if the full apk has to be downloaded
+     */
+    private boolean applyDelta(final File base, final File apk, final String patchesDir,
+                               final ByteString sha256, final ProgressSampler sampler) {
+        try {
+            return withFailover(new MirrorCall<Boolean>() {
+                @Override
+                public Boolean call(MirrorSelector.Mirror mirror) throws IOException {
+                    return applyDelta(mirror, base, apk, patchesDir, sha256, sampler);
                 }
+            }, RetryPolicy.NONE);
+        } catch(IOException e) {
+            Log.w(TAG, "Failed to apply the patch, falling back to full download", e);
+            return false;
+        }
+    }
 
-                BufferedSink sink = null;
+    /**
+     * Tries to update the apk (synchronously) by applying the patch downloaded from a mirror.
+     * @return true if the patch was applied, false if there is no patch or the patched apk doesn't
+     *         match the checksum
+     * @throws IOException if the patch can't be downloaded or applied
+     */
+    private boolean applyDelta(MirrorSelector.Mirror mirror, File base, File apk, String patchesDir,
+                               ByteString sha256, ProgressSampler sampler) throws IOException {
+        BuildDate installed = getInstalledBuildDate();
+
+        String patchName = patchesDir + installed.toCompactString() + "_"
+                + getLatestBuildDate().toCompactString() + PATCH_EXT;
+        File patch = new File(apk.getPath() + PATCH_EXT);
+        File patched = new File(apk.getPath() + ".patched");
+        try {
+            Request request = new Request.Builder()
+                    .url(mirror.url(patchName))
+                    .cacheControl(ResumableDownload.NO_STORE)
+                    .tag(new TransferTag(sampler, throttle))
+                    .get().build();
+            Response response = http.newCall(request).execute();
+            try {
+                if(response.code() == HTTP_NOT_FOUND) {
+                    Log.d(TAG, "No patch available: " + patchName);
+                    return false;
+                }
+                if(!response.isSuccessful())
+                    throw new HttpStatusException("Failed to download the patch", response);
+                BufferedSink sink = Okio.buffer(Okio.sink(patch));
                 try {
-                    File out = new File(downloadPath, CHROMIUM_SWE_APK);
-                    sink = Okio.buffer(Okio.sink(out));
                     sink.writeAll(response.body().source());
-                } catch (IOException e) {
-                    Log.e(TAG, "Error while writing the file", e);
-                    returnOnCallingThread(handler, returnCallback, false);
-                    return;
                 } finally {
-                    if(sink != null) sink.close();
+                    sink.close();
                 }
+            } finally {
+                response.close();
+            }
 
-                installUpdate(downloadPath);
+            DigestingSink digestingSink = new DigestingSink(Okio.sink(patched), DigestingSink.sha256());
+            BufferedSink sink = Okio.buffer(digestingSink);
+            try {
+                BsPatch.apply(base, patch, sink.outputStream());
+            } finally {
+                sink.close();
+            }
 
-                //update last installation time and latest build time
-                setInstalledBuildDate(getLatestBuildDate());
+            if(!digestingSink.hash().equals(sha256)) {
+                Log.w(TAG, "The patched apk doesn't match the checksum, falling back to full download");
+                return false;
+            }
+            if(apk.exists() && !apk.delete() || !patched.renameTo(apk))
+                throw new IOException("Cannot move " + patched + " to " + apk);
+            return true;
+        } finally {
+            patch.delete();
+            patched.delete();
+        }
+    }
 
-                returnOnCallingThread(handler, returnCallback, true);
+    /**
+     * Fetches the SHA-256 of the apk (synchronously).
+     * @return the hash, or null if the repo doesn't publish it
+     */
+    private ByteString fetchChecksum(MirrorSelector.Mirror mirror) throws IOException {
+        Request request = new Request.Builder()
+                .url(mirror.url(CHECKSUM_FILE))
+                .get().build();
+
+        Response response = http.newCall(request).execute();
+        try {
+            if(response.code() == HTTP_NOT_FOUND) {
+                Log.w(TAG, "No checksum available, the apk won't be verified");
+                return null;
             }
-        });
+            if(!response.isSuccessful())
+                throw new HttpStatusException("Failed to fetch the checksum", response);
+            return parseChecksum(response.body().string());
+        } finally {
+            response.close();
+        }
+    }
+
+    /**Parses a checksum in sha256sum format: the hex hash optionally followed by the file name*/
+    private static ByteString parseChecksum(String checksum) throws IOException {
+        checksum = checksum.trim();
+        int end = checksum.indexOf(' ');
+        try {
+            return ByteString.decodeHex(end < 0 ? checksum : checksum.substring(0, end));
+        } catch(IllegalArgumentException e) {
+            throw new IOException("Malformed checksum " + checksum, e);
+        }
+    }
+
+    /**
+     * Checks that the apk is complete and well formed (see {@link ApkValidator}), that it's of the
+     * same package of the build installed through the updater, and that it isn't older than the
+     * installed version, which the installer would refuse. Such an apk is deleted.
+     * @return the package name and version of the apk
+     * @throws IOException if the apk is not valid
+     */
+    private ApkValidator.ApkInfo validateApk(File apk) throws IOException {
+        try {
+            ApkValidator.ApkInfo info = ApkValidator.validate(apk);
+            Log.d(TAG, "Downloaded " + info);
+            String expectedPackage = state.getInstalledPackage();
+            if(expectedPackage != null && !expectedPackage.equals(info.getPackageName()))
+                throw new ApkValidator.InvalidApkException("Expected package " + expectedPackage + ", got " + info);
+            try {
+                int installed = context.getPackageManager().getPackageInfo(info.getPackageName(), 0).versionCode;
+                if(installed > info.getVersionCode())
+                    throw new ApkValidator.InvalidApkException("Version " + installed + " already installed, got " + info);
+            } catch(PackageManager.NameNotFoundException e) {
+                //not installed yet
+            }
+            return info;
+        } catch(ApkValidator.InvalidApkException e) {
+            apk.delete();
+            throw e;
+        }
     }
 
-    /**Installs the update by invoking the default packet installer*/
-    private void installUpdate(File downloadPath) {
-        File apk = new File(downloadPath, ChromiumUpdater.CHROMIUM_SWE_APK);
+    /**
+     * Opens an install session for the latest build.
+     * @return the session, null if session installs aren't supported or the session can't be opened
+     */
+    private SessionInstaller.Session openInstallSession() {
+        if(!SessionInstaller.isSupported()) return null;
+        Artifact artifact = state.getLatestArtifact();
+        try {
+            return new SessionInstaller(context).open(artifact == null ? -1 : artifact.getSize());
+        } catch(IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot open an install session", e);
+            return null;
+        }
+    }
+
+    /**
+     * Installs the update through a {@link SessionInstaller} when supported, falling back to the
+     * default package installer UI.
+     * @param session the session the apk was streamed to while downloading. Can be null
+     */
+    private void installUpdate(File apk, SessionInstaller.Session session) {
+        if(SessionInstaller.isSupported()) {
+            try {
+                new SessionInstaller(context).install(apk, session);
+                return;
+            } catch(IOException | RuntimeException e) {
+                Log.w(TAG, "Session install failed, falling back to the package installer", e);
+            }
+        }
+
         Intent intent = new Intent(Intent.ACTION_VIEW);
 
         Uri uri;
@@ -186,6 +678,8 @@ public class ChromiumUpdater {
             context.grantUriPermission("com.google.android.packageinstaller", uri,
                     Intent.FLAG_GRANT_WRITE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION);
         } else {
+            if(!cache.makeReadableByInstaller(apk))
+                Log.w(TAG, "Cannot make " + apk + " readable by the package installer");
             uri = Uri.fromFile(apk);
         }
 
@@ -194,34 +688,63 @@ public class ChromiumUpdater {
         context.startActivity(intent);
     }
 
+    /**
+     * Runs a request on the best mirror, failing over to the next ones if it fails. Only a transient
+     * failure counts against the mirror (see {@link MirrorSelector#reportFailure}). If all of them
+     * fail and at least one failure was transient, the mirrors are tried again after the backoff
+     * delay of the {@link RetryPolicy}.
+     * @throws IOException the failure of the last mirror, if all of them failed
+     */
+    private <T> T withFailover(MirrorCall<T> call) throws IOException {
+        return withFailover(call, retryPolicy);
+    }
+
+    /**
+     * Runs a request on the best mirror, failing over to the next ones if it fails.
+     * @param retryPolicy the policy with which the mirrors are tried again if all of them fail
+     * @throws IOException the failure of the last mirror, if all of them failed
+     */
+    private <T> T withFailover(MirrorCall<T> call, RetryPolicy retryPolicy) throws IOException {
+        for(int attempt = 1; ; attempt++) {
+            IOException failure = null;
+            boolean retriable = false;
+            for(MirrorSelector.Mirror mirror : mirrors.rank()) {
+                try {
+                    return call.call(mirror);
+                } catch(IOException e) {
+                    Log.w(TAG, "Request to " + mirror + " failed", e);
+                    //e.g. a missing file or a checksum mismatch don't mean that the mirror is down
+                    if(retryPolicy.isRetriable(e)) {
+                        mirrors.reportFailure(mirror);
+                        retriable = true;
+                    }
+                    failure = e;
+                }
+            }
+            if(!retriable || !retryPolicy.canRetry(attempt))
+                throw failure;
+            Log.d(TAG, "All the mirrors failed, retrying (attempt " + (attempt + 1) + ")");
+            retryPolicy.await(attempt);
+        }
+    }
+
     /**
      * Returns the latest build time and date in a {@link BuildDate} object.
      * The {@link BuildDate} returned is the last date fetched from the repo by the last
      * {@link ChromiumUpdater#checkForUpdate(ReturnCallback)} call.
      * @return the latest build time and date in a {@link BuildDate} object.
-     * @see ChromiumUpdater#update(File, ProgressResponseBody.ProgressListener, ReturnCallback)
+     * @see ChromiumUpdater#update(ProgressSampler.Listener, ReturnCallback)
+     * @see UpdateStateStore
      */
     public BuildDate getLatestBuildDate() {
-        SharedPreferences prefs = context.getSharedPreferences(BUILD_PREFS, Context.MODE_PRIVATE);
-        return BuildDate.parseBuildTime(prefs.getString(BUILD_LASTBUILD_FETCHED, Constants.EPOCH));
+        return state.getLatestBuildDate();
     }
 
     /**
      * @return the build time and date of the last build installed in a {@link BuildDate} object.
      */
     public BuildDate getInstalledBuildDate() {
-        SharedPreferences prefs = context.getSharedPreferences(BUILD_PREFS, Context.MODE_PRIVATE);
-        return BuildDate.parseBuildTime(prefs.getString(BUILD_LASTBUILD_INST, Constants.EPOCH));
-    }
-
-    private void setLatestBuildDate(BuildDate buildDate) {
-        SharedPreferences prefs = context.getSharedPreferences(BUILD_PREFS, Context.MODE_PRIVATE);
-        prefs.edit().putString(BUILD_LASTBUILD_FETCHED, buildDate.toString()).apply();
-    }
-
-    private void setInstalledBuildDate(BuildDate buildDate) {
-        SharedPreferences prefs = context.getSharedPreferences(BUILD_PREFS, Context.MODE_PRIVATE);
-        prefs.edit().putString(BUILD_LASTBUILD_INST, buildDate.toString()).apply();
+        return state.getInstalledBuildDate();
     }
 
     /**
@@ -237,8 +760,76 @@ public class ChromiumUpdater {
         });
     }
 
-    private void setProgressListener(ProgressResponseBody.ProgressListener progressListener) {
-        this.progressListener = progressListener;
+    /**
+     * Sets how often the download progress is published to the listener.
+     * @param progressInterval the interval in milliseconds
+     */
+    public void setProgressInterval(long progressInterval) {
+        if(progressInterval <= 0)
+            throw new IllegalArgumentException("progressInterval must be positive");
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Limits the bandwidth of the downloads. Takes effect immediately, also on a running download.
+     * @param bytesPerSecond the max rate, or {@link BandwidthThrottle#UNLIMITED}
+     */
+    public void setMaxDownloadRate(long bytesPerSecond) {
+        throttle.setRate(bytesPerSecond);
+    }
+
+    /**
+     * Sets the priority of the downloads. A background download slows down to
+     * {@link BandwidthThrottle#BACKGROUND_RATE} while other apps are using the network.
+     */
+    public void setBackgroundPriority(boolean background) {
+        throttle.setBackground(background ? OTHER_APPS_TRAFFIC : null);
+    }
+
+    /**
+     * Sets the policy with which the checks and the downloads are retried when all the mirrors
+     * fail. An interrupted download is resumed by the next attempt.
+     * @param retryPolicy the policy, {@link RetryPolicy#NONE} to never retry
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Sets the maximum number of parallel connections used to download the apk. A value of 1
+     * disables the segmented download.
+     * @param downloadSegments the number of connections, at least 1
+     */
+    public void setDownloadSegments(int downloadSegments) {
+        if(downloadSegments < 1)
+            throw new IllegalArgumentException("downloadSegments must be at least 1");
+        this.downloadSegments = downloadSegments;
+    }
+
+    /**
+     * The install session the apk is streamed to. It's opened only for a single stream download
+     * from the start of the file, the segments of a {@link SegmentedDownload} arrive out of order.
+     */
+    private class StreamedInstall {
+        private SessionInstaller.Session session;
+
+        /**@return a new session, null if it can't be opened*/
+        private SessionInstaller.Session open() {
+            abandon();
+            session = openInstallSession();
+            return session;
+        }
+
+        /**Discards the session, e.g. because the download that was writing to it failed*/
+        private void abandon() {
+            if(session != null) session.abandon();
+            session = null;
+        }
+    }
+
+    /**A request to a mirror of the repo*/
+    private interface MirrorCall<T> {
+        T call(MirrorSelector.Mirror mirror) throws IOException;
     }
 
     public interface ReturnCallback<T> {
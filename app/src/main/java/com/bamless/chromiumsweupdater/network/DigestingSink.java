@@ -0,0 +1,71 @@
+package com.bamless.chromiumsweupdater.network;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import okio.Buffer;
+import okio.ByteString;
+import okio.ForwardingSink;
+import okio.Sink;
+
+/**
+ * {@link Sink} that updates a {@link MessageDigest} with the bytes written through it. Unlike
+ * {@link okio.HashingSink} the digest can be seeded with data written before (e.g. the partial file
+ * of a resumed download), so that the hash of the whole file is computed without a second pass.
+ */
+public class DigestingSink extends ForwardingSink {
+    private final MessageDigest digest;
+    private final OutputStream digestStream;
+
+    public DigestingSink(Sink delegate, final MessageDigest digest) {
+        super(delegate);
+        this.digest = digest;
+        this.digestStream = new OutputStream() {
+            @Override public void write(int b) {
+                digest.update((byte) b);
+            }
+
+            @Override public void write(byte[] b, int off, int len) {
+                digest.update(b, off, len);
+            }
+        };
+    }
+
+    @Override public void write(Buffer source, long byteCount) throws IOException {
+        source.copyTo(digestStream, 0, byteCount);
+        super.write(source, byteCount);
+    }
+
+    /**@return the hash of the bytes written so far. The digest gets reset.*/
+    public ByteString hash() {
+        return ByteString.of(digest.digest());
+    }
+
+    /**@return a new SHA-256 {@link MessageDigest}*/
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**Updates the digest with the first length bytes of file*/
+    public static void update(MessageDigest digest, File file, long length) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while(length > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, length))) != -1) {
+                digest.update(buffer, 0, read);
+                length -= read;
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.bamless.chromiumsweupdater.network;
+
+import android.content.Context;
+
+import com.bamless.chromiumsweupdater.models.MetricsStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+/**
+ * Provides the application wide {@link OkHttpClient}. Sharing a single client means sharing its
+ * connection pool, dispatcher threads and disk cache, so that e.g. the download following an update
+ * check reuses the warm connection instead of paying for a new TLS handshake. Components that need
+ * a differently configured client should derive it with {@link OkHttpClient#newBuilder()}, which
+ * keeps sharing those resources.
+ * <p>
+ * The progress and the bandwidth of a transfer are handled per call: a request tagged with a
+ * {@link TransferTag} reports the bytes of its response body to the tag's {@link ProgressSampler},
+ * so concurrent transfers never share a listener, and reads it through the tag's
+ * {@link BandwidthThrottle}.
+ * <p>
+ * Every call of the client (and of the clients derived from it) is timed by a
+ * {@link MetricsEventListener}, and its metrics are kept in the {@link MetricsStore}.
+ */
+public class HttpClientProvider {
+    /**Name of the HTTP cache directory and its maximum size*/
+    private final static String HTTP_CACHE_DIR = "http";
+    private final static long HTTP_CACHE_SIZE = 512 * 1024;
+
+    /**Timeouts (in seconds)*/
+    private final static int CONNECT_TIMEOUT = 15;
+    private final static int READ_TIMEOUT = 30;
+    private final static int WRITE_TIMEOUT = 30;
+
+    /**Connection pool configuration. Connections are kept long enough to span a check and a download*/
+    private final static int MAX_IDLE_CONNECTIONS = 4;
+    private final static int KEEP_ALIVE_MINUTES = 5;
+
+    /**Dispatcher limits. All the traffic goes to a handful of hosts*/
+    private final static int MAX_REQUESTS = 16;
+    private final static int MAX_REQUESTS_PER_HOST = 4;
+
+    private static OkHttpClient client;
+
+    /**Attaches the sampler and the throttle of the {@link TransferTag} (if any) to the response body*/
+    private final static Interceptor TRANSFER_INTERCEPTOR = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Response originalResponse = chain.proceed(chain.request());
+            Object tag = chain.request().tag();
+            if(!(tag instanceof TransferTag))
+                return originalResponse;
+
+            TransferTag transfer = (TransferTag) tag;
+            ResponseBody body = originalResponse.body();
+            if(transfer.throttle != null) {
+                body = ResponseBody.create(body.contentType(), body.contentLength(),
+                        Okio.buffer(new ThrottledSource(body.source(), transfer.throttle)));
+            }
+            if(transfer.progressSampler != null) {
+                body = new ProgressResponseBody(body, transfer.progressSampler,
+                        ResumableDownload.contentRangeStart(originalResponse));
+            }
+            return originalResponse.newBuilder()
+                    .body(body)
+                    .build();
+        }
+    };
+
+    private HttpClientProvider() {
+    }
+
+    /**@return the shared client, built on the first call*/
+    public static synchronized OkHttpClient get(Context context) {
+        if(client == null) {
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(MAX_REQUESTS);
+            dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+            File cacheDir = new File(context.getApplicationContext().getCacheDir(), HTTP_CACHE_DIR);
+            client = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                    .dispatcher(dispatcher)
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .connectTimeout(CONNECT_TIMEOUT, TimeUnit.SECONDS)
+                    .readTimeout(READ_TIMEOUT, TimeUnit.SECONDS)
+                    .writeTimeout(WRITE_TIMEOUT, TimeUnit.SECONDS)
+                    .cache(new Cache(cacheDir, HTTP_CACHE_SIZE))
+                    .addNetworkInterceptor(TRANSFER_INTERCEPTOR)
+                    .eventListenerFactory(MetricsEventListener.factory(MetricsStore.getInstance(context)))
+                    .build();
+        }
+        return client;
+    }
+}
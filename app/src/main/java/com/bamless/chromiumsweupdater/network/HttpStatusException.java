@@ -0,0 +1,23 @@
+package com.bamless.chromiumsweupdater.network;
+
+import java.io.IOException;
+
+import okhttp3.Response;
+
+/**
+ * Thrown when the server answers with an unexpected status code. The code tells the
+ * {@link RetryPolicy} whether the request is worth retrying.
+ */
+public class HttpStatusException extends IOException {
+    private final int code;
+
+    public HttpStatusException(String message, Response response) {
+        super(message + ": " + response);
+        this.code = response.code();
+    }
+
+    /**@return the HTTP status code of the response*/
+    public int getCode() {
+        return code;
+    }
+}
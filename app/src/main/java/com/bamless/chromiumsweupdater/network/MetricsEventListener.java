@@ -0,0 +1,149 @@
+package com.bamless.chromiumsweupdater.network;
+
+import com.bamless.chromiumsweupdater.models.CallMetrics;
+import com.bamless.chromiumsweupdater.models.MetricsStore;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * Times the phases of a call (DNS lookup, connection, TLS handshake, first byte of the response,
+ * whole call) and records them, along with the bytes read, the retries and the failure reason, as
+ * {@link CallMetrics} in a {@link MetricsStore} once the call ends. A new listener is created for
+ * every call (see {@link #factory(MetricsStore)}), so it is only accessed by the thread running it.
+ */
+public class MetricsEventListener extends EventListener {
+    private final MetricsStore store;
+    private final long time = System.currentTimeMillis();
+
+    /**Start of the phases in progress (nanoTime)*/
+    private long callStart;
+    private long dnsStart;
+    private long connectStart;
+    private long tlsStart;
+
+    /**Durations in nanoseconds, -1 if the phase didn't happen*/
+    private long dns = -1;
+    private long connect = -1;
+    private long tls = -1;
+    private long ttfb = -1;
+
+    private long bytes;
+    private int code = -1;
+    private int requests;
+    private int redirects;
+    private int connectFailures;
+
+    private MetricsEventListener(MetricsStore store) {
+        this.store = store;
+    }
+
+    /**@return a factory of listeners recording to the store*/
+    public static EventListener.Factory factory(final MetricsStore store) {
+        return new EventListener.Factory() {
+            @Override
+            public EventListener create(Call call) {
+                return new MetricsEventListener(store);
+            }
+        };
+    }
+
+    @Override
+    public void callStart(Call call) {
+        callStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        dnsStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        dns = add(dns, System.nanoTime() - dnsStart);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        tlsStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        tls = add(tls, System.nanoTime() - tlsStart);
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        connect = add(connect, System.nanoTime() - connectStart);
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                              Protocol protocol, IOException ioe) {
+        connect = add(connect, System.nanoTime() - connectStart);
+        connectFailures++;
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        requests++;
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        if(ttfb < 0) ttfb = System.nanoTime() - callStart;
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+        code = response.code();
+        if(response.isRedirect()) redirects++;
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        bytes += byteCount;
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        record(call, null);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        record(call, ioe.getClass().getSimpleName() + ": " + ioe.getMessage());
+    }
+
+    private void record(Call call, String failure) {
+        //requests sent again on a new connection, without counting the redirects followed
+        int retries = connectFailures + Math.max(0, requests - 1 - redirects);
+        store.record(new CallMetrics(time, call.request().method(), call.request().url().toString(),
+                code, millis(dns), millis(connect), millis(tls), millis(ttfb),
+                millis(System.nanoTime() - callStart), bytes, retries, redirects, failure));
+    }
+
+    private static long add(long total, long duration) {
+        return total < 0 ? duration : total + duration;
+    }
+
+    private static long millis(long nanos) {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,252 @@
+package com.bamless.chromiumsweupdater.network;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Routes the requests to the fastest healthy mirror of the update repo. Each mirror is scored by
+ * moving averages of its latency and throughput, fed by the actual transfers. A mirror with no
+ * score yet is probed with a HEAD request before ranking, unless it's the only one and there is
+ * nothing to rank. A mirror that fails is skipped for a while, backing off exponentially on
+ * consecutive failures, so that the requests fail over to the next one.
+ * The probes (and the requests reported with {@link #resolve(Mirror, String, String)}) also resolve
+ * the redirects of a mirror (e.g. github.com/.../raw/ redirecting to raw.githubusercontent.com),
+ * and the final address is then used directly, saving a round trip per request. The state of the
+ * mirrors is process wide and shared by all the selectors.
+ */
+public class MirrorSelector {
+    private final static String TAG = MirrorSelector.class.getSimpleName();
+
+    /**Weight of the latest sample in the moving averages*/
+    private final static float SMOOTHING = 0.3f;
+    /**Time after which a mirror still without a score is probed again (in milliseconds)*/
+    private final static long PROBE_TTL = 30 * 60 * 1000;
+    /**Max time the probes are waited for (in milliseconds)*/
+    private final static long PROBE_TIMEOUT = 5000;
+    /**Time a failed mirror is skipped for (in milliseconds), doubled on every consecutive failure*/
+    private final static long FAILURE_BACKOFF = 60 * 1000;
+    private final static long MAX_FAILURE_BACKOFF = 60 * 60 * 1000;
+    /**Size of the transfer the mirrors are ranked for. Latency counts more below it, throughput above*/
+    private final static long REFERENCE_SIZE = 1024 * 1024;
+    private final static int HTTP_SERVER_ERROR = 500;
+
+    /**The mirrors by base url. Also guards the state of the mirrors*/
+    private final static Map<String, Mirror> registry = new HashMap<>();
+
+    private final OkHttpClient http;
+    private final List<Mirror> mirrors = new ArrayList<>();
+    private final String probePath;
+
+    /**
+     * @param http the client used for the probes
+     * @param baseUrls the base urls of the mirrors, in order of preference for when they have
+     *                 no score yet
+     * @param probePath path (relative to the base url) of a small file the mirrors are probed with.
+     *                  It must exist, a missing file isn't redirected and so doesn't resolve the
+     *                  redirects of the mirror
+     */
+    public MirrorSelector(OkHttpClient http, List<String> baseUrls, String probePath) {
+        if(baseUrls.isEmpty())
+            throw new IllegalArgumentException("At least a mirror is needed");
+        this.http = http.newBuilder()
+                .connectTimeout(PROBE_TIMEOUT, TimeUnit.MILLISECONDS)
+                .readTimeout(PROBE_TIMEOUT, TimeUnit.MILLISECONDS)
+                .build();
+        this.probePath = probePath;
+        synchronized(registry) {
+            for(String baseUrl : baseUrls) {
+                Mirror mirror = registry.get(baseUrl);
+                if(mirror == null) {
+                    mirror = new Mirror(baseUrl);
+                    registry.put(baseUrl, mirror);
+                }
+                mirrors.add(mirror);
+            }
+        }
+    }
+
+    /**
+     * Ranks the mirrors (synchronously), probing first the ones that have no score yet.
+     * @return the mirrors from the best to the worst. The mirrors that recently failed come last
+     */
+    public List<Mirror> rank() {
+        if(mirrors.size() > 1) probeUnscored();
+
+        final long now = SystemClock.elapsedRealtime();
+        List<Mirror> ranked = new ArrayList<>(mirrors);
+        synchronized(registry) {
+            Collections.sort(ranked, new Comparator<Mirror>() {
+                @Override
+                public int compare(Mirror a, Mirror b) {
+                    boolean aHealthy = a.retryAt <= now, bHealthy = b.retryAt <= now;
+                    if(aHealthy != bHealthy) return aHealthy ? -1 : 1;
+                    return Float.compare(a.score(), b.score());
+                }
+            });
+        }
+        return ranked;
+    }
+
+    /**
+     * Records a successful request to a mirror.
+     * @param latency time to the first byte of the response in milliseconds, -1 if not measured
+     * @param bytes bytes transferred, 0 if the throughput wasn't measured
+     * @param duration duration of the transfer in milliseconds
+     */
+    public void reportSuccess(Mirror mirror, long latency, long bytes, long duration) {
+        synchronized(registry) {
+            mirror.failures = 0;
+            mirror.retryAt = 0;
+            if(latency >= 0)
+                mirror.latency = mirror.latency < 0 ? latency : average(mirror.latency, latency);
+            if(bytes > 0 && duration > 0) {
+                float throughput = bytes * 1000f / duration;
+                mirror.throughput = mirror.throughput == 0 ? throughput : average(mirror.throughput, throughput);
+            }
+        }
+    }
+
+    /**Records a failed request to a mirror, which is then skipped until its back off expires*/
+    public void reportFailure(Mirror mirror) {
+        synchronized(registry) {
+            long backoff = FAILURE_BACKOFF << Math.min(mirror.failures, 16);
+            mirror.failures++;
+            mirror.retryAt = SystemClock.elapsedRealtime() + Math.min(backoff, MAX_FAILURE_BACKOFF);
+            //the redirect may point to a host that's gone, resolve it again
+            mirror.resolvedBaseUrl = mirror.baseUrl;
+        }
+        Log.d(TAG, "Mirror " + mirror + " failed " + mirror.failures + " times in a row");
+    }
+
+    /**
+     * Resolves the redirects of a mirror from the final url of a request to it.
+     * @param finalUrl the url the response came from, after the redirects
+     * @param path the path of the file requested, relative to the base url
+     */
+    public void resolve(Mirror mirror, String finalUrl, String path) {
+        mirror.resolve(finalUrl, path);
+    }
+
+    /**Probes in parallel the mirrors that have no score yet, waiting at most PROBE_TIMEOUT*/
+    private void probeUnscored() {
+        long now = SystemClock.elapsedRealtime();
+        List<Mirror> unscored = new ArrayList<>();
+        synchronized(registry) {
+            for(Mirror mirror : mirrors) {
+                if(mirror.latency < 0 && (mirror.lastProbe == 0 || now - mirror.lastProbe > PROBE_TTL)) {
+                    mirror.lastProbe = now;
+                    unscored.add(mirror);
+                }
+            }
+        }
+        if(unscored.isEmpty()) return;
+
+        final CountDownLatch latch = new CountDownLatch(unscored.size());
+        for(final Mirror mirror : unscored) {
+            Request request = new Request.Builder()
+                    .url(mirror.baseUrl + probePath)
+                    .cacheControl(ResumableDownload.NO_STORE)
+                    .head().build();
+            http.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    Log.w(TAG, "Probe of " + mirror + " failed", e);
+                    reportFailure(mirror);
+                    latch.countDown();
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try {
+                        //the file may be missing, but any answer but a server error means it's up
+                        if(response.code() >= HTTP_SERVER_ERROR) {
+                            reportFailure(mirror);
+                            return;
+                        }
+                        mirror.resolve(response.request().url().toString(), probePath);
+                        reportSuccess(mirror, response.receivedResponseAtMillis()
+                                - response.sentRequestAtMillis(), 0, 0);
+                    } finally {
+                        response.close();
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            latch.await(PROBE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static float average(float average, float sample) {
+        return SMOOTHING * sample + (1 - SMOOTHING) * average;
+    }
+
+    /**A mirror of the update repo*/
+    public static class Mirror {
+        private final String baseUrl;
+        /**Base url after the redirects*/
+        private volatile String resolvedBaseUrl;
+
+        /**Moving averages of the latency (ms, -1 if unknown) and throughput (bytes/s, 0 if unknown)*/
+        private float latency = -1;
+        private float throughput;
+        private int failures;
+        /**Time (elapsed realtime) until which the mirror is skipped*/
+        private long retryAt;
+        private long lastProbe;
+
+        private Mirror(String baseUrl) {
+            this.baseUrl = baseUrl;
+            this.resolvedBaseUrl = baseUrl;
+        }
+
+        /**@return the url of a file of the repo on this mirror, skipping the known redirects*/
+        public String url(String path) {
+            return resolvedBaseUrl + path;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        /**Estimated time (in milliseconds) to transfer REFERENCE_SIZE bytes. Lower is better*/
+        private float score() {
+            if(latency < 0) return Float.MAX_VALUE;
+            return throughput == 0 ? latency : latency + REFERENCE_SIZE * 1000f / throughput;
+        }
+
+        private void resolve(String finalUrl, String path) {
+            if(!finalUrl.endsWith(path)) return;
+            String resolved = finalUrl.substring(0, finalUrl.length() - path.length());
+            if(!resolved.equals(resolvedBaseUrl)) {
+                resolvedBaseUrl = resolved;
+                Log.d(TAG, baseUrl + " resolved to " + resolvedBaseUrl);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return baseUrl;
+        }
+    }
+}
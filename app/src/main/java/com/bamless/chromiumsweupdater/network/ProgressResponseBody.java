@@ -11,16 +11,29 @@ import okio.Okio;
 import okio.Source;
 
 /**
- * {@link ResponseBody} that calls {@link ProgressListener} while reading data.
+ * {@link ResponseBody} that adds the bytes read to a {@link ProgressSampler}. If the body is only
+ * a part of the resource (i.e. the response to a ranged request) the progress is reported relative
+ * to the whole resource.
  */
 public class ProgressResponseBody extends ResponseBody {
     private final ResponseBody responseBody;
-    private final ProgressListener progressListener;
+    private final ProgressSampler progressSampler;
     private BufferedSource bufferedSource;
 
-    public ProgressResponseBody(ResponseBody responseBody, ProgressListener progressListener) {
+    public ProgressResponseBody(ResponseBody responseBody, ProgressSampler progressSampler) {
+        this(responseBody, progressSampler, 0);
+    }
+
+    /**
+     * @param offset position of the first byte of the body in the resource
+     */
+    public ProgressResponseBody(ResponseBody responseBody, ProgressSampler progressSampler, long offset) {
         this.responseBody = responseBody;
-        this.progressListener = progressListener;
+        this.progressSampler = progressSampler;
+        if(progressSampler != null) {
+            long contentLength = responseBody.contentLength();
+            progressSampler.reset(offset, contentLength < 0 ? -1 : offset + contentLength);
+        }
     }
 
     @Override public MediaType contentType() {
@@ -40,21 +53,14 @@ public class ProgressResponseBody extends ResponseBody {
 
     private Source source(Source source) {
         return new ForwardingSource(source) {
-            long totalBytesRead = 0L;
-
             @Override public long read(Buffer sink, long byteCount) throws IOException {
                 long bytesRead = super.read(sink, byteCount);
                 // read() returns the number of bytes read, or -1 if this source is exhausted.
-                totalBytesRead += bytesRead != -1 ? bytesRead : 0;
-                if(progressListener != null)
-                    progressListener.update(totalBytesRead, responseBody.contentLength(), bytesRead == -1);
+                if(progressSampler != null && bytesRead != -1)
+                    progressSampler.add(bytesRead);
                 return bytesRead;
             }
         };
     }
 
-    public interface ProgressListener {
-        void update(long bytesRead, long contentLength, boolean done);
-    }
-
 }
@@ -0,0 +1,146 @@
+package com.bamless.chromiumsweupdater.network;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples the progress reporting of a transfer from the threads doing it. The transfer only
+ * adds the bytes it moves to an atomic counter ({@link #add(long)}), while a single scheduler
+ * thread samples the counter at a fixed interval and publishes a {@link Snapshot} (with the rate
+ * smoothed by an exponentially weighted moving average and the remaining time) to the
+ * {@link Listener}. All the snapshots are published on the scheduler thread.
+ */
+public class ProgressSampler {
+    /**Default sampling interval (in milliseconds)*/
+    public final static long DEFAULT_INTERVAL = 500;
+    /**Weight of the latest sample in the moving average of the rate*/
+    private final static float RATE_SMOOTHING = 0.3f;
+
+    private final static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ProgressSampler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Listener listener;
+    private final long interval;
+
+    private final AtomicLong bytesRead = new AtomicLong();
+    private volatile long contentLength = -1;
+    private ScheduledFuture<?> task;
+
+    /**State of the moving average. Accessed only by the scheduler thread*/
+    private long lastBytesRead;
+    private long lastSampleTime;
+    private float rate;
+
+    /**
+     * @param listener the listener the snapshots are published to
+     * @param interval the sampling interval in milliseconds
+     */
+    public ProgressSampler(Listener listener, long interval) {
+        this.listener = listener;
+        this.interval = interval;
+    }
+
+    /**Starts sampling the progress*/
+    public synchronized void start() {
+        if(task != null) return;
+        task = scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                publish(false);
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**Stops sampling and publishes a last snapshot with done set to true*/
+    public synchronized void finish() {
+        cancel();
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                publish(true);
+            }
+        });
+    }
+
+    /**Stops sampling without publishing anything else (e.g. the transfer failed)*/
+    public synchronized void stop() {
+        cancel();
+    }
+
+    private void cancel() {
+        if(task != null) task.cancel(false);
+        task = null;
+    }
+
+    /**Adds bytes to the progress. Cheap enough to be called on every read of a transfer.*/
+    public void add(long bytes) {
+        bytesRead.addAndGet(bytes);
+    }
+
+    /**
+     * Resets the progress, e.g. when a transfer restarts or resumes.
+     * @param bytesRead bytes already transferred
+     * @param contentLength total bytes of the transfer, -1 if unknown
+     */
+    public void reset(long bytesRead, long contentLength) {
+        this.contentLength = contentLength;
+        this.bytesRead.set(bytesRead);
+    }
+
+    private void publish(boolean done) {
+        long bytes = bytesRead.get();
+        long length = contentLength;
+        long now = System.nanoTime();
+
+        if(lastSampleTime != 0 && now > lastSampleTime) {
+            float sample = Math.max(0, bytes - lastBytesRead) / ((now - lastSampleTime) / 1e9f);
+            rate = rate == 0 ? sample : RATE_SMOOTHING * sample + (1 - RATE_SMOOTHING) * rate;
+        }
+        lastBytesRead = bytes;
+        lastSampleTime = now;
+
+        long secondsRemaining = length < 0 || rate == 0 ? -1 : (long) ((length - bytes) / rate);
+        listener.onProgress(new Snapshot(bytes, length, rate, secondsRemaining, done));
+    }
+
+    /**The state of a transfer at a given time*/
+    public static class Snapshot {
+        public final long bytesRead;
+        /**-1 if unknown*/
+        public final long contentLength;
+        /**Smoothed transfer rate in bytes per second*/
+        public final float bytesPerSecond;
+        /**Estimated time remaining, -1 if unknown*/
+        public final long secondsRemaining;
+        public final boolean done;
+
+        public Snapshot(long bytesRead, long contentLength, float bytesPerSecond,
+                        long secondsRemaining, boolean done) {
+            this.bytesRead = bytesRead;
+            this.contentLength = contentLength;
+            this.bytesPerSecond = bytesPerSecond;
+            this.secondsRemaining = secondsRemaining;
+            this.done = done;
+        }
+
+        /**@return the progress percentage, 0 if the length is unknown*/
+        public int percent() {
+            return contentLength <= 0 ? 0 : (int) (bytesRead * 100 / contentLength);
+        }
+    }
+
+    public interface Listener {
+        void onProgress(Snapshot progress);
+    }
+}
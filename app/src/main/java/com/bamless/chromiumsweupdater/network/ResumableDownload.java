@@ -0,0 +1,346 @@
+package com.bamless.chromiumsweupdater.network;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+import okhttp3.CacheControl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.ByteString;
+
+/**
+ * Downloads a remote file resuming a previously interrupted download when possible. The bytes
+ * received so far are kept in a ".part" file next to the destination, while a ".meta" sidecar
+ * holds the validators (ETag and Last-Modified) of the remote resource and the number of bytes
+ * already written. On retry the download continues with a Range/If-Range request, falling back to
+ * a full download if the server answers with the whole resource (200) or with a 416. The body is
+ * written directly into the channel of the partial file, preallocated to its final size.
+ * If an expected SHA-256 is set, the file is hashed while it's written and the download fails
+ * if the hashes don't match.
+ */
+public class ResumableDownload {
+    private final static String TAG = ResumableDownload.class.getSimpleName();
+
+    /**Suffixes of the partial file and of its metadata sidecar*/
+    public final static String PART_SUFFIX = ".part";
+    public final static String META_SUFFIX = ".meta";
+
+    /**Metadata keys*/
+    private final static String META_RESOURCE = "url";
+    private final static String META_ETAG = "etag";
+    private final static String META_LAST_MODIFIED = "lastModified";
+    private final static String META_OFFSET = "offset";
+
+    private final static int HTTP_PARTIAL_CONTENT = 206;
+    private final static int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**Keeps the downloaded files out of the HTTP cache*/
+    final static CacheControl NO_STORE = new CacheControl.Builder().noStore().build();
+
+    private final OkHttpClient http;
+    private final String url;
+    private final File destination;
+    private final File partFile;
+    private final File metaFile;
+    /**Identifies the remote file in the metadata*/
+    private String resourceKey;
+    /**Expected SHA-256 of the file, null if it shouldn't be verified*/
+    private ByteString expectedSha256;
+    /**Sampler of the download progress, null if the progress isn't tracked*/
+    private ProgressSampler progressSampler;
+    /**Throttle of the download bandwidth, null if not limited*/
+    private BandwidthThrottle throttle;
+    /**Gets a copy of the file as it's written, null if none*/
+    private Tee tee;
+
+    public ResumableDownload(OkHttpClient http, String url, File destination) {
+        this.http = http;
+        this.url = url;
+        this.resourceKey = url;
+        this.destination = destination;
+        this.partFile = new File(destination.getPath() + PART_SUFFIX);
+        this.metaFile = new File(destination.getPath() + META_SUFFIX);
+    }
+
+    /**
+     * Downloads the file (synchronously), resuming the partial file if possible. Upon success the
+     * partial file is moved to the destination.
+     * @throws IOException if the download fails. What has been written so far is kept so that a
+     *                     later call can resume from there, unless the file doesn't match the
+     *                     expected hash. In that case the file is deleted.
+     */
+    public void execute() throws IOException {
+        if(!attempt(true)) {
+            //the partial file doesn't match the remote resource anymore, start over
+            Log.d(TAG, "Range not satisfiable, restarting the download of " + url);
+            discard();
+            if(!attempt(false))
+                throw new IOException("Range not satisfiable on a full download of " + url);
+        }
+    }
+
+    /**
+     * Sets the SHA-256 the downloaded file is verified against.
+     * @param expectedSha256 the expected hash, or null to skip verification
+     */
+    public void setExpectedSha256(ByteString expectedSha256) {
+        this.expectedSha256 = expectedSha256;
+    }
+
+    /**
+     * Sets the key that identifies the remote file in the metadata of the partial download, so that
+     * a download interrupted on a mirror can be resumed from another one. Defaults to the url.
+     * The If-Range validator still makes sure that the partial file matches the remote one.
+     * @param resourceKey the key, e.g. the path of the file relative to the mirror
+     */
+    public void setResourceKey(String resourceKey) {
+        this.resourceKey = resourceKey;
+    }
+
+    /**
+     * Sets the sampler the progress of the download is reported to. The progress of a resumed
+     * download includes the bytes downloaded by the previous attempts.
+     * @param progressSampler the sampler, or null to not track the progress
+     */
+    public void setProgressSampler(ProgressSampler progressSampler) {
+        this.progressSampler = progressSampler;
+    }
+
+    /**
+     * Sets the throttle limiting the bandwidth of the download.
+     * @param throttle the throttle, or null to not limit the bandwidth
+     */
+    public void setThrottle(BandwidthThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Sets a listener that gets a copy of the bytes of the file as they are written, e.g. to stream
+     * them somewhere else while downloading. Every attempt tells the listener the offset it
+     * starts writing at.
+     * @param tee the listener, or null
+     */
+    public void setTee(Tee tee) {
+        this.tee = tee;
+    }
+
+    /**@return true if there is a partial download that can be resumed*/
+    public boolean canResume() {
+        return resumeOffset(readMeta()) > 0;
+    }
+
+    /**Deletes the partial file and its metadata*/
+    public void discard() {
+        partFile.delete();
+        metaFile.delete();
+    }
+
+    /**
+     * Performs a single download attempt.
+     * @return false if the server answered 416 to the request, true otherwise
+     */
+    private boolean attempt(boolean resume) throws IOException {
+        Properties meta = resume ? readMeta() : null;
+        long offset = resumeOffset(meta);
+
+        Request.Builder builder = new Request.Builder().url(url).get()
+                .cacheControl(NO_STORE)
+                .tag(new TransferTag(progressSampler, throttle));
+        if(offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-")
+                   .header("If-Range", validator(meta));
+        }
+
+        Response response = http.newCall(builder.build()).execute();
+        try {
+            if(response.code() == HTTP_RANGE_NOT_SATISFIABLE)
+                return false;
+            if(!response.isSuccessful())
+                throw new HttpStatusException("Unexpected response", response);
+
+            //a 200 means the resource changed (or the server ignored the range): start from zero
+            boolean append = offset > 0 && response.code() == HTTP_PARTIAL_CONTENT;
+            if(append && contentRangeStart(response) != offset)
+                throw new IOException("Unexpected Content-Range: " + response.header("Content-Range"));
+            if(!append) offset = 0;
+
+            writeMeta(response, offset);
+            writeBody(response, offset);
+        } finally {
+            response.close();
+        }
+
+        if(destination.exists() && !destination.delete())
+            throw new IOException("Cannot overwrite " + destination);
+        if(!partFile.renameTo(destination))
+            throw new IOException("Cannot move " + partFile + " to " + destination);
+        metaFile.delete();
+        return true;
+    }
+
+    /**
+     * Writes the body in the partial file starting at offset. The file is preallocated to its final
+     * size and the body is written straight into its channel.
+     */
+    private void writeBody(Response response, long offset) throws IOException {
+        final MessageDigest digest = expectedSha256 != null ? DigestingSink.sha256() : null;
+        //hash what was downloaded by the previous attempts
+        if(digest != null && offset > 0)
+            DigestingSink.update(digest, partFile, offset);
+
+        final Tee tee = this.tee;
+        if(tee != null) tee.onStart(offset);
+        ChannelWriter.ChunkListener listener = null;
+        if(digest != null || tee != null) {
+            listener = new ChannelWriter.ChunkListener() {
+                @Override
+                public void onChunk(byte[] chunk, int length) throws IOException {
+                    if(digest != null) digest.update(chunk, 0, length);
+                    if(tee != null) tee.onChunk(chunk, length);
+                }
+            };
+        }
+
+        long contentLength = response.body().contentLength();
+        RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+        ChannelWriter writer = new ChannelWriter(raf.getChannel(), offset);
+        try {
+            //drops any byte past the offset (e.g. written but not recorded before a crash)
+            raf.setLength(contentLength > 0 ? offset + contentLength : offset);
+            writer.writeAll(response.body().source(), listener);
+            raf.setLength(writer.getPosition());
+        } finally {
+            raf.close();
+            //remember how many bytes made it to disk, so that the next attempt can resume from there
+            updateOffset(writer.getPosition());
+        }
+
+        if(digest != null && !ByteString.of(digest.digest()).equals(expectedSha256)) {
+            discard();
+            throw new IOException("SHA-256 mismatch for " + url);
+        }
+    }
+
+    /**Returns the offset from which the download can be resumed, or 0 if it can't be resumed*/
+    private long resumeOffset(Properties meta) {
+        if(meta == null || validator(meta) == null || !resourceKey.equals(meta.getProperty(META_RESOURCE)))
+            return 0;
+        try {
+            long offset = Long.parseLong(meta.getProperty(META_OFFSET, "0"));
+            return offset <= partFile.length() ? offset : 0;
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the validator to send in the If-Range header. Weak ETags can't be used for ranged
+     * requests, in that case the Last-Modified date is used instead.
+     */
+    private static String validator(Properties meta) {
+        String etag = meta.getProperty(META_ETAG);
+        if(etag != null && !etag.startsWith("W/"))
+            return etag;
+        return meta.getProperty(META_LAST_MODIFIED);
+    }
+
+    private Properties readMeta() {
+        if(!metaFile.exists() || !partFile.exists())
+            return null;
+
+        Properties meta = new Properties();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(metaFile);
+            meta.load(in);
+            return meta;
+        } catch(IOException e) {
+            Log.e(TAG, "Cannot read the download metadata", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeMeta(Response response, long offset) throws IOException {
+        writeMeta(metaFile, resourceKey, response.header("ETag"), response.header("Last-Modified"), offset);
+    }
+
+    /**
+     * Records the first offset bytes of the partial file of destination, written by someone else
+     * (e.g. a failed {@link SegmentedDownload}), as a download that can be resumed.
+     */
+    static void savePartial(File destination, String resourceKey, String etag, String lastModified,
+                            long offset) throws IOException {
+        writeMeta(new File(destination.getPath() + META_SUFFIX), resourceKey, etag, lastModified, offset);
+    }
+
+    private static void writeMeta(File metaFile, String resourceKey, String etag, String lastModified,
+                                  long offset) throws IOException {
+        Properties meta = new Properties();
+        meta.setProperty(META_RESOURCE, resourceKey);
+        meta.setProperty(META_OFFSET, Long.toString(offset));
+        if(etag != null)
+            meta.setProperty(META_ETAG, etag);
+        if(lastModified != null)
+            meta.setProperty(META_LAST_MODIFIED, lastModified);
+        storeMeta(metaFile, meta);
+    }
+
+    private void updateOffset(long offset) throws IOException {
+        Properties meta = readMeta();
+        if(meta == null) return;
+        meta.setProperty(META_OFFSET, Long.toString(offset));
+        storeMeta(metaFile, meta);
+    }
+
+    private static void storeMeta(File metaFile, Properties meta) throws IOException {
+        FileOutputStream out = new FileOutputStream(metaFile);
+        try {
+            meta.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the first byte position of the Content-Range header of a partial response, or 0 if
+     * the response has no (valid) Content-Range.
+     */
+    static long contentRangeStart(Response response) {
+        String range = response.header("Content-Range");
+        if(range == null || !range.startsWith("bytes ")) return 0;
+        int dash = range.indexOf('-');
+        if(dash < 0) return 0;
+        try {
+            return Long.parseLong(range.substring("bytes ".length(), dash).trim());
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**Gets a copy of the file as it's written, see {@link #setTee(Tee)}*/
+    public interface Tee extends ChannelWriter.ChunkListener {
+        /**
+         * Called when an attempt starts writing the file. The chunks that follow are the bytes of
+         * the file from offset on.
+         */
+        void onStart(long offset);
+    }
+
+    private static void closeQuietly(FileInputStream in) {
+        if(in == null) return;
+        try {
+            in.close();
+        } catch(IOException ignored) {
+        }
+    }
+}
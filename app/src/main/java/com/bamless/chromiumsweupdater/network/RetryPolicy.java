@@ -0,0 +1,116 @@
+package com.bamless.chromiumsweupdater.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * Decides whether and when a failed request is tried again. A request is attempted up to
+ * {@link #getMaxAttempts()} times, waiting between the attempts a delay that doubles every time
+ * (up to a maximum) and is randomized, so that clients that failed together don't retry together.
+ * Only the transient failures are retried: timeouts, connections refused or reset, truncated
+ * responses and server errors. Anything else (e.g. a 404, a checksum mismatch, a canceled call) is
+ * fatal.
+ */
+public class RetryPolicy {
+    /**Default number of attempts and bounds of the delay between them (in milliseconds)*/
+    public final static int DEFAULT_MAX_ATTEMPTS = 3;
+    public final static long DEFAULT_INITIAL_DELAY = 2000;
+    public final static long DEFAULT_MAX_DELAY = 60000;
+
+    /**Policy that never retries*/
+    public final static RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    private final static int HTTP_REQUEST_TIMEOUT = 408;
+    private final static int HTTP_TOO_MANY_REQUESTS = 429;
+    private final static int HTTP_SERVER_ERROR = 500;
+    /**Thrown by okhttp when a HTTP/2 stream is reset. Not part of its API, so matched by name*/
+    private final static String STREAM_RESET_EXCEPTION = "okhttp3.internal.http2.StreamResetException";
+
+    private final int maxAttempts;
+    private final long initialDelay;
+    private final long maxDelay;
+    private final Random random = new Random();
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * @param maxAttempts max number of attempts of a request, at least 1
+     * @param initialDelay delay before the second attempt in milliseconds
+     * @param maxDelay max delay between two attempts in milliseconds
+     */
+    public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay) {
+        if(maxAttempts < 1)
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        if(initialDelay < 0 || maxDelay < initialDelay)
+            throw new IllegalArgumentException("invalid delays: " + initialDelay + ", " + maxDelay);
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**@return true if a request that failed with e may succeed if tried again*/
+    public boolean isRetriable(IOException e) {
+        if(e instanceof HttpStatusException) {
+            int code = ((HttpStatusException) e).getCode();
+            return code >= HTTP_SERVER_ERROR || code == HTTP_REQUEST_TIMEOUT || code == HTTP_TOO_MANY_REQUESTS;
+        }
+        if(e instanceof SocketTimeoutException)
+            return true;
+        //the thread was interrupted or the call canceled
+        if(e instanceof InterruptedIOException)
+            return false;
+        //okhttp wraps the end of stream of a connection closed before the response
+        if(e.getClass() == IOException.class && e.getCause() instanceof IOException)
+            return isRetriable((IOException) e.getCause());
+        //refused or reset connections, unreachable network, truncated bodies and HTTP/2 streams
+        return e instanceof SocketException || e instanceof UnknownHostException
+                || e instanceof EOFException || e instanceof ProtocolException
+                || e.getClass().getName().equals(STREAM_RESET_EXCEPTION);
+    }
+
+    /**
+     * @param attempt the attempts made so far
+     * @return true if the request can be attempted again
+     */
+    public boolean canRetry(int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * Returns the delay before the next attempt: half of it grows exponentially, the other half is
+     * random.
+     * @param attempt the attempts made so far, at least 1
+     * @return the delay in milliseconds
+     */
+    public long getDelay(int attempt) {
+        long delay = initialDelay << Math.min(attempt - 1, 30);
+        if(delay <= 0 || delay > maxDelay) delay = maxDelay;
+        return delay / 2 + (long) (random.nextDouble() * (delay - delay / 2));
+    }
+
+    /**
+     * Waits the delay before the next attempt.
+     * @param attempt the attempts made so far, at least 1
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void await(int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(getDelay(attempt));
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Retry interrupted");
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
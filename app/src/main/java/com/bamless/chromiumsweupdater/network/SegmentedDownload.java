@@ -0,0 +1,306 @@
+package com.bamless.chromiumsweupdater.network;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.ByteString;
+
+/**
+ * Downloads a file splitting it in byte ranges that are fetched in parallel, each one on its own
+ * connection and written at its offset in a preallocated file. If the server doesn't advertise
+ * support for byte ranges nothing is downloaded, and the caller should fall back to a single
+ * stream download (see {@link ResumableDownload}). If an expected SHA-256 is set the file is
+ * verified once all the segments are written; since the segments arrive out of order this takes
+ * a second pass over the file. If the download fails, the part of the file downloaded without gaps
+ * from its start is kept, so that a {@link ResumableDownload} can resume from there.
+ */
+public class SegmentedDownload {
+    private final static String TAG = SegmentedDownload.class.getSimpleName();
+
+    /**Minimum size of a segment. Smaller files are split in less segments*/
+    private final static long MIN_SEGMENT_SIZE = 1024 * 1024;
+    private final static int HTTP_PARTIAL_CONTENT = 206;
+    /**How long to wait for the cancelled segments to stop (in milliseconds)*/
+    private final static long CANCEL_TIMEOUT = 5000;
+
+    private final OkHttpClient http;
+    private final String url;
+    private final File destination;
+    private final File partFile;
+    private final int segments;
+    private final ProgressSampler progressSampler;
+    /**Expected SHA-256 of the file, null if it shouldn't be verified*/
+    private ByteString expectedSha256;
+    /**Throttle of the bandwidth of all the segments, null if not limited*/
+    private BandwidthThrottle throttle;
+    /**Identifies the remote file in the metadata of the partial download*/
+    private String resourceKey;
+
+    private long contentLength;
+
+    /**
+     * @param http the client used for the download
+     * @param url the url of the file
+     * @param destination where to save the file
+     * @param segments maximum number of segments in which the download gets split
+     * @param progressSampler sampler of the total progress of the download. Can be null
+     */
+    public SegmentedDownload(OkHttpClient http, String url, File destination, int segments,
+                             ProgressSampler progressSampler) {
+        //ranges have to go on separate connections, HTTP/2 would multiplex them on a single one
+        this.http = http.newBuilder()
+                .protocols(Collections.singletonList(Protocol.HTTP_1_1))
+                .build();
+        this.url = url;
+        this.resourceKey = url;
+        this.destination = destination;
+        this.partFile = new File(destination.getPath() + ResumableDownload.PART_SUFFIX);
+        this.segments = segments;
+        this.progressSampler = progressSampler;
+    }
+
+    /**
+     * Sets the SHA-256 the downloaded file is verified against.
+     * @param expectedSha256 the expected hash, or null to skip verification
+     */
+    public void setExpectedSha256(ByteString expectedSha256) {
+        this.expectedSha256 = expectedSha256;
+    }
+
+    /**
+     * Sets the throttle limiting the bandwidth of the download. The segments share it, so the limit
+     * applies to the download as a whole.
+     * @param throttle the throttle, or null to not limit the bandwidth
+     */
+    public void setThrottle(BandwidthThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Sets the key that identifies the remote file in the metadata of the partial download kept on
+     * failure. Should match the one of the {@link ResumableDownload} resuming it.
+     * @see ResumableDownload#setResourceKey(String)
+     */
+    public void setResourceKey(String resourceKey) {
+        this.resourceKey = resourceKey;
+    }
+
+    /**
+     * Downloads the file (synchronously).
+     * @return false if the server doesn't support byte ranges (or the file is too small to be
+     *         split) and nothing was downloaded, true if the download succeeded.
+     * @throws IOException if the download fails. In this case the partial file is deleted, except for
+     *                     its first bytes downloaded without gaps, if the server sent a validator
+     *                     to resume them with (a strong ETag or a Last-Modified date).
+     */
+    public boolean execute() throws IOException {
+        Response probe = http.newCall(new Request.Builder().url(url).head()
+                .cacheControl(ResumableDownload.NO_STORE).build()).execute();
+        HttpUrl resolvedUrl;
+        String etag, lastModified, validator;
+        try {
+            if(!probe.isSuccessful())
+                throw new HttpStatusException("Unexpected response", probe);
+            if(!"bytes".equalsIgnoreCase(probe.header("Accept-Ranges"))) {
+                Log.d(TAG, "Byte ranges not supported by the server");
+                return false;
+            }
+            contentLength = parseLength(probe.header("Content-Length"));
+            //send the segments straight to the final location, skipping the redirects
+            resolvedUrl = probe.request().url();
+            etag = probe.header("ETag");
+            lastModified = probe.header("Last-Modified");
+            validator = etag == null || etag.startsWith("W/") ? lastModified : etag;
+        } finally {
+            probe.close();
+        }
+
+        int count = (int) Math.min(segments, contentLength / MIN_SEGMENT_SIZE);
+        if(count < 2) return false;
+
+        //a leftover single stream download would be invalidated by the segments
+        new File(destination.getPath() + ResumableDownload.META_SUFFIX).delete();
+
+        if(progressSampler != null) progressSampler.reset(0, contentLength);
+
+        //whether the partial file is kept: once complete, or to resume it after a failure
+        boolean keep = false;
+        long[] ends = new long[count];
+        AtomicLongArray positions = new AtomicLongArray(count);
+        RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+        try {
+            raf.setLength(contentLength);
+            try {
+                download(resolvedUrl, validator, ends, positions, raf.getChannel());
+            } catch(IOException e) {
+                if(validator != null) keep = keepPrefix(ends, positions, etag, lastModified);
+                throw e;
+            }
+            verify();
+            keep = true;
+        } finally {
+            raf.close();
+            if(!keep) partFile.delete();
+        }
+
+        if(destination.exists() && !destination.delete())
+            throw new IOException("Cannot overwrite " + destination);
+        if(!partFile.renameTo(destination))
+            throw new IOException("Cannot move " + partFile + " to " + destination);
+        return true;
+    }
+
+    /**
+     * Fetches the segments in parallel and waits for all of them to complete, or for the first one
+     * to fail. In that case the others are cancelled, and have stopped once this returns.
+     * @param ends filled with the position past the end of each segment
+     * @param positions updated with the position of the next byte to be written of each segment
+     */
+    private void download(HttpUrl url, String validator, long[] ends, final AtomicLongArray positions,
+                          final FileChannel channel) throws IOException {
+        int count = ends.length;
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        CompletionService<Void> results = new ExecutorCompletionService<>(executor);
+        List<Call> calls = new ArrayList<>(count);
+
+        long segmentSize = contentLength / count;
+        for(int i = 0; i < count; i++) {
+            final long start = i * segmentSize;
+            final long end = i == count - 1 ? contentLength - 1 : start + segmentSize - 1;
+            final int segment = i;
+            ends[i] = end + 1;
+            positions.set(i, start);
+
+            Request.Builder request = new Request.Builder().url(url).get()
+                    .cacheControl(ResumableDownload.NO_STORE)
+                    .header("Range", "bytes=" + start + "-" + end)
+                    .tag(new TransferTag(null, throttle));
+            if(validator != null) request.header("If-Range", validator);
+
+            final Call call = http.newCall(request.build());
+            calls.add(call);
+            results.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    fetchSegment(call, start, end, channel, positions, segment);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for(int i = 0; i < count; i++)
+                results.take().get();
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch(InterruptedException e) {
+            throw new InterruptedIOException("Segmented download interrupted");
+        } finally {
+            //on failure stop the other segments as well, and wait for them to record where they stopped
+            for(Call call : calls) call.cancel();
+            executor.shutdownNow();
+            awaitTermination(executor);
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            if(!executor.awaitTermination(CANCEL_TIMEOUT, TimeUnit.MILLISECONDS))
+                Log.w(TAG, "Segments still running after being cancelled");
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fetchSegment(Call call, long start, long end, FileChannel channel,
+                              AtomicLongArray positions, int segment) throws IOException {
+        Response response = call.execute();
+        try {
+            if(!response.isSuccessful())
+                throw new HttpStatusException("Unexpected response for segment " + start + "-" + end, response);
+            if(response.code() != HTTP_PARTIAL_CONTENT || ResumableDownload.contentRangeStart(response) != start)
+                throw new IOException("Unexpected response for segment " + start + "-" + end + ": " + response);
+
+            ChannelWriter writer = new ChannelWriter(channel, start);
+            try {
+                writer.writeAll(response.body().source(), progressSampler == null ? null : new ChannelWriter.ChunkListener() {
+                    @Override
+                    public void onChunk(byte[] chunk, int length) {
+                        progressSampler.add(length);
+                    }
+                });
+            } finally {
+                positions.set(segment, writer.getPosition());
+            }
+
+            long position = writer.getPosition();
+            if(position != end + 1)
+                throw new IOException("Segment " + start + "-" + end + " truncated at " + position);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Keeps the bytes downloaded without gaps from the start of the file as a partial download that
+     * can be resumed. Must be called once all the segments have stopped.
+     * @return true if something was kept
+     */
+    private boolean keepPrefix(long[] ends, AtomicLongArray positions, String etag, String lastModified) {
+        long prefix = 0;
+        for(int i = 0; i < ends.length; i++) {
+            prefix = positions.get(i);
+            if(prefix < ends[i]) break;
+        }
+        if(prefix == 0) return false;
+        try {
+            ResumableDownload.savePartial(destination, resourceKey, etag, lastModified, prefix);
+            Log.d(TAG, "Kept the first " + prefix + " bytes of " + url);
+            return true;
+        } catch(IOException e) {
+            Log.w(TAG, "Cannot keep the partial download", e);
+            return false;
+        }
+    }
+
+    private void verify() throws IOException {
+        if(expectedSha256 == null) return;
+        MessageDigest digest = DigestingSink.sha256();
+        DigestingSink.update(digest, partFile, contentLength);
+        if(!ByteString.of(digest.digest()).equals(expectedSha256))
+            throw new IOException("SHA-256 mismatch for " + url);
+    }
+
+    private static long parseLength(String contentLength) {
+        if(contentLength == null) return -1;
+        try {
+            return Long.parseLong(contentLength);
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+}
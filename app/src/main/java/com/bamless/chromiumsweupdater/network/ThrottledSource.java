@@ -0,0 +1,29 @@
+package com.bamless.chromiumsweupdater.network;
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Source;
+
+/**
+ * {@link Source} read no faster than a {@link BandwidthThrottle} allows. Sources sharing a throttle
+ * share its bandwidth.
+ */
+public class ThrottledSource extends ForwardingSource {
+    private final BandwidthThrottle throttle;
+
+    public ThrottledSource(Source source, BandwidthThrottle throttle) {
+        super(source);
+        this.throttle = throttle;
+    }
+
+    @Override public long read(Buffer sink, long byteCount) throws IOException {
+        long allowed = throttle.acquire(byteCount);
+        long bytesRead = super.read(sink, allowed);
+        // read() returns the number of bytes read, or -1 if this source is exhausted.
+        if(bytesRead < allowed)
+            throttle.release(allowed - Math.max(bytesRead, 0));
+        return bytesRead;
+    }
+}
@@ -0,0 +1,19 @@
+package com.bamless.chromiumsweupdater.network;
+
+/**
+ * Tag of the requests that transfer a file (see {@link okhttp3.Request.Builder#tag(Object)}). The
+ * response body of a tagged request reports its progress to the sampler, and is read no faster than
+ * the throttle allows.
+ * @see HttpClientProvider
+ */
+class TransferTag {
+    /**Can be null*/
+    final ProgressSampler progressSampler;
+    /**Can be null*/
+    final BandwidthThrottle throttle;
+
+    TransferTag(ProgressSampler progressSampler, BandwidthThrottle throttle) {
+        this.progressSampler = progressSampler;
+        this.throttle = throttle;
+    }
+}
@@ -0,0 +1,44 @@
+package com.bamless.chromiumsweupdater.receivers;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageInstaller;
+import android.os.Build;
+import android.util.Log;
+
+import com.bamless.chromiumsweupdater.models.UpdateStateStore;
+import com.bamless.chromiumsweupdater.network.ChromiumUpdater;
+
+/**
+ * Receives the outcome of the install sessions committed by the
+ * {@link com.bamless.chromiumsweupdater.install.SessionInstaller}. When the system asks for the
+ * user's confirmation it shows the confirmation screen. The pending build becomes the installed
+ * one only on success, if the installation fails or the user cancels it the update is still
+ * available.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class InstallResultReceiver extends BroadcastReceiver {
+    public final static String TAG = "InstallResultReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        int status = intent.getIntExtra(PackageInstaller.EXTRA_STATUS, PackageInstaller.STATUS_FAILURE);
+        switch(status) {
+            case PackageInstaller.STATUS_PENDING_USER_ACTION:
+                Intent confirm = intent.getParcelableExtra(Intent.EXTRA_INTENT);
+                confirm.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                context.startActivity(confirm);
+                break;
+            case PackageInstaller.STATUS_SUCCESS:
+                Log.d(TAG, "update installed");
+                ChromiumUpdater.completeInstall(context);
+                break;
+            default:
+                Log.e(TAG, "Install failed (" + status + "): "
+                        + intent.getStringExtra(PackageInstaller.EXTRA_STATUS_MESSAGE));
+                UpdateStateStore.getInstance(context).clearPendingInstall();
+        }
+    }
+}
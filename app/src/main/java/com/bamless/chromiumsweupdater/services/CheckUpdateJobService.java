@@ -0,0 +1,49 @@
+package com.bamless.chromiumsweupdater.services;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+
+import com.bamless.chromiumsweupdater.utils.UpdateScheduler;
+
+/**
+ * Job that starts the {@link CheckUpdateService} once the device is online. Scheduled by
+ * {@link UpdateScheduler}.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class CheckUpdateJobService extends JobService {
+
+    /**ID of the check job. A new schedule replaces the pending one*/
+    private final static int JOB_ID = 1001;
+
+    /**
+     * Schedules the check.
+     * @param delay minimum delay of the check in milliseconds
+     */
+    public static void schedule(Context context, long delay) {
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, CheckUpdateJobService.class))
+                .setMinimumLatency(delay)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setPersisted(true)
+                .build();
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        startService(new Intent(this, CheckUpdateService.class));
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
@@ -5,18 +5,22 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.BitmapFactory;
 import android.os.IBinder;
 import android.support.annotation.Nullable;
 import android.support.v7.app.NotificationCompat;
 import android.util.Log;
 
+import com.bamless.chromiumsweupdater.models.UpdateStateStore;
 import com.bamless.chromiumsweupdater.network.ChromiumUpdater;
 import com.bamless.chromiumsweupdater.MainActivity;
 import com.bamless.chromiumsweupdater.R;
+import com.bamless.chromiumsweupdater.utils.ApkCache;
+import com.bamless.chromiumsweupdater.utils.IconCache;
+import com.bamless.chromiumsweupdater.utils.UpdateScheduler;
 
 /**
- * Service that checks if an update is available, and notifies if it is.
+ * Service that checks if an update is available, and notifies if it is. If prefetching is enabled
+ * the update is also downloaded in background (see {@link DownloadService#prefetch(Context)}).
  */
 public class CheckUpdateService extends Service {
     public final static String TAG = CheckUpdateService.class.getSimpleName();
@@ -36,13 +40,19 @@ public class CheckUpdateService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        UpdateScheduler.onCheckStarted(this);
         updater.checkForUpdate(new ChromiumUpdater.ReturnCallback<Boolean>() {
             @Override
             public void onReturn(Boolean returnValue) {
                 if(returnValue == null) {
                     showUpdateFailure();
-                } else if(returnValue) {
-                    showUpdateNotification();
+                    UpdateScheduler.onCheckFailed(CheckUpdateService.this);
+                } else {
+                    if(returnValue) {
+                        showUpdateNotification();
+                        prefetchUpdate();
+                    }
+                    UpdateScheduler.onCheckSucceeded(CheckUpdateService.this);
                 }
 
                 stopSelf();
@@ -52,6 +62,13 @@ public class CheckUpdateService extends Service {
         return Service.START_STICKY;
     }
 
+    /**Downloads the update in background if enabled and not done already*/
+    private void prefetchUpdate() {
+        UpdateStateStore state = UpdateStateStore.getInstance(this);
+        if(state.isPrefetchEnabled() && !ApkCache.getInstance(this).contains(state.getLatestBuildDate()))
+            DownloadService.prefetch(this);
+    }
+
     private void showUpdateFailure() {
         NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
 
@@ -79,7 +96,7 @@ public class CheckUpdateService extends Service {
     private NotificationCompat.Builder getBasetNotification() {
         NotificationCompat.Builder notBuilder = new NotificationCompat.Builder(this);
         notBuilder.setSmallIcon(R.mipmap.ic_update_black)
-                .setLargeIcon(BitmapFactory.decodeResource(getResources(), R.drawable.chromiumsweupdater))
+                .setLargeIcon(IconCache.getInstance(this).getLargeIcon(R.drawable.chromiumsweupdater))
                 .setDefaults(-1 )
                 .setAutoCancel(true);
         return notBuilder;
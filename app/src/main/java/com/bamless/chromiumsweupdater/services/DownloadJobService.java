@@ -0,0 +1,52 @@
+package com.bamless.chromiumsweupdater.services;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.PersistableBundle;
+import android.util.Log;
+
+/**
+ * Job that starts the {@link DownloadService} once its constraints (unmetered network, charging)
+ * are met. The job only hands the download over to the service, which runs it in the foreground.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class DownloadJobService extends JobService {
+    public final static String TAG = DownloadJobService.class.getSimpleName();
+
+    /**ID of the download job. A new schedule replaces the pending one*/
+    private final static int JOB_ID = 1000;
+
+    static void schedule(Context context, boolean unmetered, boolean charging, boolean install) {
+        PersistableBundle extras = new PersistableBundle();
+        //PersistableBundle has no booleans before API 22
+        extras.putInt(DownloadService.EXTRA_INSTALL, install ? 1 : 0);
+
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, DownloadJobService.class))
+                .setRequiredNetworkType(unmetered ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresCharging(charging)
+                .setPersisted(true)
+                .setExtras(extras)
+                .build();
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.schedule(job);
+        Log.d(TAG, "download scheduled (unmetered: " + unmetered + ", charging: " + charging + ")");
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        boolean install = params.getExtras().getInt(DownloadService.EXTRA_INSTALL, 1) != 0;
+        DownloadService.start(this, install);
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
@@ -0,0 +1,177 @@
+package com.bamless.chromiumsweupdater.services;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+
+import com.bamless.chromiumsweupdater.R;
+import com.bamless.chromiumsweupdater.network.ChromiumUpdater;
+import com.bamless.chromiumsweupdater.network.ProgressSampler;
+import com.bamless.chromiumsweupdater.views.ProgressNotification;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Foreground service that owns the download of the update, so that the download (and its progress
+ * notification) survives the destruction of the activity that started it. The progress is
+ * published to the bound {@link DownloadListener}s. If the process gets killed the system restarts
+ * the service with the same intent and the download resumes from the partial file.
+ * The download can also be deferred until the device is on an unmetered network and/or charging,
+ * see {@link #schedule(Context, boolean, boolean)}, or run in advance without installing the
+ * update (see {@link #prefetch(Context)}).
+ */
+public class DownloadService extends Service implements ProgressSampler.Listener {
+    public final static String TAG = DownloadService.class.getSimpleName();
+
+    /**Intent extra. Whether the update should be installed once downloaded*/
+    final static String EXTRA_INSTALL = "install";
+
+    private final IBinder binder = new DownloadBinder();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<DownloadListener> listeners = new CopyOnWriteArrayList<>();
+
+    private ChromiumUpdater updater;
+    private ProgressNotification progressNotification;
+    /**Last progress published, handed to the listeners that bind during the download*/
+    private volatile ProgressSampler.Snapshot lastProgress;
+    private boolean running;
+    /**Whether the update should be installed at the end of the running download*/
+    private boolean installWhenDone;
+
+    /**Starts downloading the update right away*/
+    public static void start(Context context) {
+        start(context, true);
+    }
+
+    static void start(Context context, boolean install) {
+        context.startService(new Intent(context, DownloadService.class)
+                .putExtra(EXTRA_INSTALL, install));
+    }
+
+    /**
+     * Schedules the download of the latest build in background, for when the device is on an
+     * unmetered network and charging. The update isn't installed: once the download is done
+     * {@link ChromiumUpdater#installCached(ChromiumUpdater.ReturnCallback)} installs it without waiting.
+     */
+    public static void prefetch(Context context) {
+        schedule(context, true, true, false);
+    }
+
+    /**
+     * Schedules the download of the update for when the constraints are met. Before Lollipop
+     * there's no JobScheduler, and the download starts right away.
+     * @param unmetered whether the download should wait for an unmetered network
+     * @param charging whether the download should wait for the device to be charging
+     */
+    public static void schedule(Context context, boolean unmetered, boolean charging) {
+        schedule(context, unmetered, charging, true);
+    }
+
+    private static void schedule(Context context, boolean unmetered, boolean charging, boolean install) {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || (!unmetered && !charging)) {
+            start(context, install);
+            return;
+        }
+        DownloadJobService.schedule(context, unmetered, charging, install);
+    }
+
+    @Override
+    public void onCreate() {
+        updater = new ChromiumUpdater(this);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        boolean install = intent.getBooleanExtra(EXTRA_INSTALL, true);
+        if(running) {
+            //the user asked for the update while it's prefetched: install it as soon as it's ready
+            installWhenDone |= install;
+            return START_REDELIVER_INTENT;
+        }
+
+        running = true;
+        installWhenDone = false;
+        lastProgress = null;
+        progressNotification = new ProgressNotification(this, getString(install
+                ? R.string.updateNotificationText : R.string.prefetchNotificationText));
+        progressNotification.start();
+        startForeground(progressNotification.getNotificationID(), progressNotification.build());
+
+        //a prefetch yields the network to the apps in use
+        updater.setBackgroundPriority(!install);
+        ChromiumUpdater.ReturnCallback<Boolean> callback = new ChromiumUpdater.ReturnCallback<Boolean>() {
+            @Override
+            public void onReturn(Boolean success) {
+                if(success && installWhenDone) updater.installCached(null);
+                running = false;
+                stopForeground(true);
+                for(DownloadListener listener : listeners)
+                    listener.onDownloadFinished(success);
+                stopSelf();
+            }
+        };
+        if(install)
+            updater.update(this, callback);
+        else
+            updater.download(this, callback);
+        Log.d(TAG, "download started");
+        return START_REDELIVER_INTENT;
+    }
+
+    /**Called on the sampler thread, forwards the progress to the notification and the listeners*/
+    @Override
+    public void onProgress(final ProgressSampler.Snapshot progress) {
+        lastProgress = progress;
+        progressNotification.onProgress(progress);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for(DownloadListener listener : listeners)
+                    listener.onProgress(progress);
+            }
+        });
+    }
+
+    /**@return true if a download is running*/
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Adds a listener of the download. If a download is running the listener immediately gets its
+     * last progress.
+     */
+    public void addDownloadListener(DownloadListener listener) {
+        listeners.add(listener);
+        ProgressSampler.Snapshot progress = lastProgress;
+        if(running && progress != null) listener.onProgress(progress);
+    }
+
+    public void removeDownloadListener(DownloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    public class DownloadBinder extends Binder {
+        public DownloadService getService() {
+            return DownloadService.this;
+        }
+    }
+
+    /**Listener of the download. Its methods are called on the main thread*/
+    public interface DownloadListener {
+        void onProgress(ProgressSampler.Snapshot progress);
+        void onDownloadFinished(boolean success);
+    }
+}
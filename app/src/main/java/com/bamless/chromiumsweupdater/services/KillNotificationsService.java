@@ -1,40 +0,0 @@
-package com.bamless.chromiumsweupdater.services;
-
-import android.app.NotificationManager;
-import android.app.Service;
-import android.content.Intent;
-import android.os.Binder;
-import android.os.IBinder;
-
-/**
- * Service that removes update notifications if app closes.
- */
-public class KillNotificationsService extends Service {
-
-    public class KillBinder extends Binder {
-        public final Service service;
-
-        public KillBinder(Service service) {
-            this.service = service;
-        }
-    }
-
-    private final IBinder binder = new KillBinder(this);
-
-    @Override
-    public IBinder onBind(Intent intent) {
-        return binder;
-    }
-
-    @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
-        return Service.START_STICKY;
-    }
-
-    @Override
-    public void onCreate() {
-        NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        nm.cancelAll();
-        stopSelf();
-    }
-}
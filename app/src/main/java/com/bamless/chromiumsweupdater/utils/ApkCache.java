@@ -0,0 +1,174 @@
+package com.bamless.chromiumsweupdater.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.bamless.chromiumsweupdater.models.BuildDate;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cache of the downloaded apks, one per build. The apks are kept in the app specific storage,
+ * which is removed along with the app and needs no permission since KitKat. The external one is
+ * preferred since the package installer of the older versions can read it; when it's missing the
+ * internal one is used, and the apks are made world readable before they're installed (see
+ * {@link #makeReadableByInstaller(File)}).
+ * The cache is bounded by a byte budget: once it's exceeded the least recently used apks are
+ * evicted, except the pinned ones (e.g. the installed build, kept as the base of the delta updates
+ * and to roll back to, and the build being downloaded). The leftovers of the downloads of builds
+ * that aren't pinned (partial files, patches) are deleted as well.
+ */
+public class ApkCache {
+    private final static String TAG = ApkCache.class.getSimpleName();
+
+    /**Default byte budget of the cache*/
+    public final static long DEFAULT_MAX_BYTES = 256 * 1024 * 1024;
+
+    private final static String CACHE_DIR = "apks";
+    private final static String APK_EXT = ".apk";
+    /**Shared prefs holding the last access time of every apk, keyed by file name*/
+    private final static String ACCESS_PREFS = "apkCachePrefs";
+
+    private static ApkCache instance;
+
+    private final File dir;
+    /**Whether the cache fell back to the internal storage*/
+    private final boolean internal;
+    private final SharedPreferences accessTimes;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    private ApkCache(Context context) {
+        File external = context.getExternalFilesDir(CACHE_DIR);
+        internal = external == null;
+        dir = internal ? new File(context.getFilesDir(), CACHE_DIR) : external;
+        if(!dir.exists() && !dir.mkdirs())
+            Log.e(TAG, "Cannot create " + dir);
+        accessTimes = context.getSharedPreferences(ACCESS_PREFS, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized ApkCache getInstance(Context context) {
+        if(instance == null)
+            instance = new ApkCache(context.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * @return the file the apk of the build is stored in. The partial files of its download should
+     *         be put next to it, so that they're cleaned up along with it
+     */
+    public File fileFor(BuildDate build) {
+        return new File(dir, build.toCompactString() + APK_EXT);
+    }
+
+    /**@return true if the apk of the build is in the cache*/
+    public boolean contains(BuildDate build) {
+        return fileFor(build).isFile();
+    }
+
+    /**@return the apk of the build, marked as just used, or null if it isn't cached*/
+    public synchronized File get(BuildDate build) {
+        File apk = fileFor(build);
+        if(!apk.isFile()) return null;
+        touch(apk);
+        return apk;
+    }
+
+    /**
+     * Adds the apk written in {@link #fileFor(BuildDate)} to the cache, evicting the least recently
+     * used ones if the budget is exceeded.
+     * @param pinned the builds that must not be evicted, besides the one added
+     */
+    public synchronized void put(BuildDate build, BuildDate... pinned) {
+        touch(fileFor(build));
+        BuildDate[] keep = Arrays.copyOf(pinned, pinned.length + 1);
+        keep[pinned.length] = build;
+        trim(keep);
+    }
+
+    /**
+     * Evicts the least recently used apks until the cache fits its budget, and deletes the leftovers
+     * of the downloads of the builds that aren't pinned.
+     * @param pinned the builds that must not be evicted
+     */
+    public synchronized void trim(BuildDate... pinned) {
+        File[] files = dir.listFiles();
+        if(files == null) return;
+        Set<String> keep = new HashSet<>();
+        for(BuildDate build : pinned) {
+            if(build != null) keep.add(build.toCompactString());
+        }
+
+        long size = 0;
+        List<File> evictable = new ArrayList<>();
+        for(File file : files) {
+            String name = file.getName();
+            int dot = name.indexOf('.');
+            boolean isPinned = dot > 0 && keep.contains(name.substring(0, dot));
+            if(!name.endsWith(APK_EXT)) {
+                //partial download, patch or anything else left behind
+                if(!isPinned) delete(file);
+                continue;
+            }
+            size += file.length();
+            if(!isPinned) evictable.add(file);
+        }
+
+        Collections.sort(evictable, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long ta = lastAccess(a), tb = lastAccess(b);
+                return ta < tb ? -1 : (ta == tb ? 0 : 1);
+            }
+        });
+        for(int i = 0; size > maxBytes && i < evictable.size(); i++) {
+            File apk = evictable.get(i);
+            size -= apk.length();
+            Log.d(TAG, "Evicting " + apk.getName());
+            delete(apk);
+        }
+    }
+
+    /**
+     * Makes a cached apk readable by the package installer of the versions before N, which is
+     * handed a file:// uri to it. Nothing to do if the apk is on the external storage.
+     * @return false if the apk couldn't be made readable
+     */
+    public boolean makeReadableByInstaller(File apk) {
+        if(!internal) return true;
+        //the installer has to get through the private directories to reach the apk
+        return dir.getParentFile().setExecutable(true, false)
+                && dir.setExecutable(true, false)
+                && apk.setReadable(true, false);
+    }
+
+    /**
+     * Sets the byte budget of the cache. It's enforced on the next {@link #put} or {@link #trim}.
+     * The pinned apks are kept even if they don't fit.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if(maxBytes < 0)
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        this.maxBytes = maxBytes;
+    }
+
+    private void touch(File apk) {
+        accessTimes.edit().putLong(apk.getName(), System.currentTimeMillis()).apply();
+    }
+
+    private long lastAccess(File apk) {
+        return accessTimes.getLong(apk.getName(), apk.lastModified());
+    }
+
+    private void delete(File file) {
+        if(!file.delete()) Log.w(TAG, "Cannot delete " + file);
+        accessTimes.edit().remove(file.getName()).apply();
+    }
+}
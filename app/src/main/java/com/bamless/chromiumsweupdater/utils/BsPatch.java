@@ -0,0 +1,172 @@
+package com.bamless.chromiumsweupdater.utils;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Applies binary patches in the bsdiff 4.x format. The patch is applied in a streaming fashion:
+ * the old file is read in place and the new file is written out as it gets reconstructed, so
+ * neither of them is ever loaded in memory. The patch is rejected if any of its blocks is
+ * inconsistent with the header or has data left once the new file is complete.
+ */
+public class BsPatch {
+    private final static String MAGIC = "BSDIFF40";
+    private final static int HEADER_SIZE = 32;
+    private final static int BUFFER_SIZE = 8192;
+
+    private BsPatch() {
+    }
+
+    /**
+     * Applies a patch.
+     * @param oldFile the file the patch was computed from
+     * @param patchFile the patch
+     * @param out where the patched file gets written. It isn't closed by this method.
+     * @throws IOException if the patch is corrupted or an I/O error occurs
+     */
+    public static void apply(File oldFile, File patchFile, OutputStream out) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        InputStream in = new FileInputStream(patchFile);
+        try {
+            readFully(in, header, HEADER_SIZE);
+        } finally {
+            in.close();
+        }
+
+        if(!MAGIC.equals(new String(header, 0, MAGIC.length(), "US-ASCII")))
+            throw new IOException("Not a bsdiff patch");
+        long ctrlLength = offtin(header, 8);
+        long diffLength = offtin(header, 16);
+        long newSize = offtin(header, 24);
+        if(ctrlLength < 0 || diffLength < 0 || newSize < 0)
+            throw new IOException("Corrupt patch header");
+
+        InputStream ctrl = null, diff = null, extra = null;
+        RandomAccessFile old = null;
+        try {
+            ctrl = block(patchFile, HEADER_SIZE);
+            diff = block(patchFile, HEADER_SIZE + ctrlLength);
+            extra = block(patchFile, HEADER_SIZE + ctrlLength + diffLength);
+            old = new RandomAccessFile(oldFile, "r");
+            patch(old, ctrl, diff, extra, newSize, out);
+        } finally {
+            closeQuietly(ctrl);
+            closeQuietly(diff);
+            closeQuietly(extra);
+            if(old != null) old.close();
+        }
+    }
+
+    private static void patch(RandomAccessFile old, InputStream ctrl, InputStream diff,
+                              InputStream extra, long newSize, OutputStream out) throws IOException {
+        byte[] ctrlBuffer = new byte[24];
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] oldBuffer = new byte[BUFFER_SIZE];
+        long oldSize = old.length();
+        long oldPos = 0, newPos = 0;
+
+        while(newPos < newSize) {
+            readFully(ctrl, ctrlBuffer, ctrlBuffer.length);
+            long add = offtin(ctrlBuffer, 0);
+            long copy = offtin(ctrlBuffer, 8);
+            long seek = offtin(ctrlBuffer, 16);
+            if(add < 0 || copy < 0 || newPos + add + copy > newSize)
+                throw new IOException("Corrupt patch control block");
+
+            //add the diff block to the old file
+            for(long remaining = add; remaining > 0;) {
+                int n = (int) Math.min(BUFFER_SIZE, remaining);
+                readFully(diff, buffer, n);
+                readOld(old, oldSize, oldPos, oldBuffer, n);
+                for(int i = 0; i < n; i++)
+                    buffer[i] += oldBuffer[i];
+                out.write(buffer, 0, n);
+                oldPos += n;
+                remaining -= n;
+            }
+
+            //copy the extra block as is
+            for(long remaining = copy; remaining > 0;) {
+                int n = (int) Math.min(BUFFER_SIZE, remaining);
+                readFully(extra, buffer, n);
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+
+            newPos += add + copy;
+            oldPos += seek;
+        }
+
+        //reaching the end of the blocks verifies their checksums, and a patch with unused data is corrupted
+        expectEnd(ctrl);
+        expectEnd(diff);
+        expectEnd(extra);
+    }
+
+    private static void expectEnd(InputStream block) throws IOException {
+        if(block.read() != -1)
+            throw new IOException("Corrupt patch, data past the end of a block");
+    }
+
+    /**Reads n bytes of the old file at pos. Bytes out of the file bounds read as 0*/
+    private static void readOld(RandomAccessFile old, long oldSize, long pos, byte[] buffer, int n)
+            throws IOException {
+        Arrays.fill(buffer, 0, n, (byte) 0);
+        long start = Math.max(pos, 0);
+        long end = Math.min(pos + n, oldSize);
+        if(start >= end) return;
+        old.seek(start);
+        old.readFully(buffer, (int) (start - pos), (int) (end - start));
+    }
+
+    /**Opens the bzip2 compressed block starting at offset*/
+    private static InputStream block(File patchFile, long offset) throws IOException {
+        InputStream in = new FileInputStream(patchFile);
+        try {
+            long skipped = 0;
+            while(skipped < offset) {
+                long n = in.skip(offset - skipped);
+                if(n <= 0) throw new EOFException("Truncated patch");
+                skipped += n;
+            }
+            return new BZip2CompressorInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        } catch(IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**Decodes the sign-magnitude little endian integers used by bsdiff*/
+    private static long offtin(byte[] buf, int offset) {
+        long y = buf[offset + 7] & 0x7f;
+        for(int i = 6; i >= 0; i--)
+            y = (y << 8) | (buf[offset + i] & 0xff);
+        return (buf[offset + 7] & 0x80) != 0 ? -y : y;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while(read < length) {
+            int n = in.read(buffer, read, length - read);
+            if(n == -1) throw new EOFException("Truncated patch");
+            read += n;
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if(in == null) return;
+        try {
+            in.close();
+        } catch(IOException ignored) {
+        }
+    }
+}
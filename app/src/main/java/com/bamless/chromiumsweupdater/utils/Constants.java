@@ -6,9 +6,6 @@ package com.bamless.chromiumsweupdater.utils;
 public class Constants {
     public final static String EPOCH = "01/01/1970 00:00:00";
 
-    /**Hour and minute of the check update alarm*/
-    public static final int ALARM_HOUR = 15;
-    public static final int ALARM_MINUTE = 15;
     /**A day in milliseconds*/
     public static final int DAY_INTERVAL = 1000 * 60 * 60 * 24;
 }
@@ -0,0 +1,99 @@
+package com.bamless.chromiumsweupdater.utils;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.DrawableRes;
+import android.util.LruCache;
+
+/**
+ * Process wide cache of the large icons of the notifications. An icon is decoded once, downsampled
+ * to the size of a notification large icon (a full size resource would be scaled by the system
+ * anyway), and then shared by every notification that shows it. The cache is bounded in bytes
+ * and releases the icons when the system is low on memory.
+ */
+public class IconCache implements ComponentCallbacks2 {
+    /**Max size (in bytes) of the decoded icons kept in memory*/
+    private final static int MAX_BYTES = 1024 * 1024;
+
+    private static IconCache instance;
+
+    private final Resources resources;
+    private final int width;
+    private final int height;
+    private final LruCache<Integer, Bitmap> icons = new LruCache<Integer, Bitmap>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(Integer key, Bitmap icon) {
+            return icon.getByteCount();
+        }
+    };
+
+    private IconCache(Context context) {
+        resources = context.getResources();
+        width = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        height = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+        context.registerComponentCallbacks(this);
+    }
+
+    public static synchronized IconCache getInstance(Context context) {
+        if(instance == null)
+            instance = new IconCache(context.getApplicationContext());
+        return instance;
+    }
+
+    /**@return the drawable resource decoded at the size of a notification large icon*/
+    public Bitmap getLargeIcon(@DrawableRes int res) {
+        Bitmap icon = icons.get(res);
+        if(icon == null) {
+            icon = decode(res);
+            //decoded by two threads at once: both are fine, the last one is kept
+            if(icon != null) icons.put(res, icon);
+        }
+        return icon;
+    }
+
+    private Bitmap decode(int res) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, res, options);
+
+        //the largest power of two that keeps the icon at least as large as the target size
+        int sampleSize = 1;
+        while(options.outWidth / (sampleSize * 2) >= width && options.outHeight / (sampleSize * 2) >= height)
+            sampleSize *= 2;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        //the size is chosen here, not by the density of the resource
+        options.inScaled = false;
+        Bitmap icon = BitmapFactory.decodeResource(resources, res, options);
+        if(icon == null || (icon.getWidth() <= width && icon.getHeight() <= height))
+            return icon;
+
+        //keeps the aspect ratio, fitting the icon in the target size
+        float scale = Math.min((float) width / icon.getWidth(), (float) height / icon.getHeight());
+        Bitmap scaled = Bitmap.createScaledBitmap(icon, Math.round(icon.getWidth() * scale),
+                Math.round(icon.getHeight() * scale), true);
+        if(scaled != icon) icon.recycle();
+        return scaled;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if(level >= TRIM_MEMORY_MODERATE)
+            icons.evictAll();
+        else if(level >= TRIM_MEMORY_BACKGROUND)
+            icons.trimToSize(MAX_BYTES / 2);
+    }
+
+    @Override
+    public void onLowMemory() {
+        icons.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
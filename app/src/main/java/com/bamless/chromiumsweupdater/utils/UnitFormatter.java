@@ -0,0 +1,67 @@
+package com.bamless.chromiumsweupdater.utils;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats download rates and durations with a unit that depends on their magnitude.
+ */
+public class UnitFormatter {
+
+    private UnitFormatter() {
+    }
+
+    /**
+     * Formats the download rate.
+     * @param bps the download rate in bytes per second
+     * @return a string formatted with a different unit depending on the speed of the download rate
+     */
+    public static String formatDownloadRate(float bps) {
+        String rate;
+        DecimalFormat decimal = new DecimalFormat("0.00", DecimalFormatSymbols.getInstance(Locale.getDefault()));
+        DecimalFormat integer = new DecimalFormat("0");
+
+        double kbps = bps/1024.0;
+        double mbps = kbps/1024.0;
+
+        if(mbps > 1) {
+            rate = hasDecimal(mbps) ? decimal.format(mbps).concat(" MB/s") : integer.format(mbps).concat(" MB/s");
+        } else if(kbps > 1) {
+            rate = hasDecimal(kbps) ? decimal.format(kbps).concat(" KB/s") : integer.format(kbps).concat(" KB/s");
+        } else {
+            rate = integer.format(bps).concat(" B/s");
+        }
+
+        return rate;
+    }
+
+    /**
+     * Formats seconds
+     * @param seconds the number of seconds to format
+     * @return a string formatted with a different unit depending on the number of seconds
+     */
+    public static String formatSeconds(int seconds) {
+        String time;
+        DecimalFormat decimal = new DecimalFormat("0.0", DecimalFormatSymbols.getInstance(Locale.getDefault()));
+        DecimalFormat integer = new DecimalFormat("0");
+
+        float min = seconds / 60.0f;
+        float hour = min / 60.0f;
+
+        if(hour > 1) {
+            time = hasDecimal(hour) ? decimal.format(hour).concat(" h") : integer.format(hour).concat(" h");
+        } else if(min > 1) {
+            time = hasDecimal(min) ? decimal.format(min).concat(" m") : integer.format(min).concat(" m");
+        } else {
+            time = integer.format(seconds).concat(" s");
+        }
+
+        return time;
+    }
+
+    /**Returns true if the input double has decimal figures*/
+    private static boolean hasDecimal(double num) {
+        return !(num % 1 == 0.0);
+    }
+}
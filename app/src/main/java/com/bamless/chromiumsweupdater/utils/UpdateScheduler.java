@@ -0,0 +1,179 @@
+package com.bamless.chromiumsweupdater.utils;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bamless.chromiumsweupdater.models.BuildDate;
+import com.bamless.chromiumsweupdater.models.UpdateStateStore;
+import com.bamless.chromiumsweupdater.receivers.AlarmReceiver;
+import com.bamless.chromiumsweupdater.services.CheckUpdateJobService;
+
+import java.util.Calendar;
+import java.util.Random;
+
+/**
+ * Schedules the update checks. From Lollipop on the check is a JobScheduler job that waits for a
+ * network connection, before it's an inexact alarm firing the {@link AlarmReceiver}. Only the next
+ * check is scheduled, and every check schedules the following one, so that the delay can change:
+ * <ul>
+ *     <li>it adapts to how often new builds are published (checking about twice per build),</li>
+ *     <li>it backs off exponentially after a failed check,</li>
+ *     <li>it has a random jitter, so that the devices don't all hit the repo at the same time.</li>
+ * </ul>
+ * A retry is armed as soon as a check starts, so that the chain isn't broken if the process is
+ * killed before the check completes.
+ */
+public class UpdateScheduler {
+    private final static String TAG = UpdateScheduler.class.getSimpleName();
+
+    /**Shared prefs name and shared prefs keys*/
+    private final static String SCHEDULER_PREFS = "schedulerPrefs";
+    private final static String NEXT_CHECK = "nextCheck";
+    private final static String FAILURES = "failures";
+    private final static String BUILD_INTERVAL = "buildInterval";
+    private final static String LAST_BUILD_SEEN = "lastBuildSeen";
+
+    /**Bounds of the interval between two checks (in milliseconds)*/
+    private final static long MIN_INTERVAL = 6 * 60 * 60 * 1000L;
+    private final static long MAX_INTERVAL = 3L * Constants.DAY_INTERVAL;
+    /**Checks made, on average, between two builds*/
+    private final static int CHECKS_PER_BUILD = 2;
+    /**Weight of the latest sample in the moving average of the interval between builds*/
+    private final static float SMOOTHING = 0.3f;
+    /**Max random delay added to a check, as a fraction of its delay*/
+    private final static float JITTER = 0.25f;
+    /**Delay (in milliseconds) of the retry after a failure, doubled on every consecutive failure*/
+    private final static long RETRY_DELAY = 15 * 60 * 1000L;
+
+    private final static Random random = new Random();
+
+    private UpdateScheduler() {
+    }
+
+    /**
+     * Makes sure the next check is scheduled, e.g. at boot or when the app is opened. A pending
+     * check keeps its time, an overdue one is rescheduled shortly.
+     */
+    public static synchronized void ensureScheduled(Context context) {
+        SharedPreferences prefs = prefs(context);
+        long nextCheck = prefs.getLong(NEXT_CHECK, 0);
+        long now = System.currentTimeMillis();
+
+        long delay;
+        if(nextCheck == 0)
+            delay = withJitter(checkInterval(prefs, now));
+        else if(nextCheck > now)
+            delay = nextCheck - now;
+        else
+            delay = withJitter(RETRY_DELAY);
+        scheduleCheck(context, prefs, delay);
+    }
+
+    /**
+     * Called after a successful check. Updates the estimate of how often the builds are published
+     * and schedules the next check accordingly.
+     */
+    public static synchronized void onCheckSucceeded(Context context) {
+        SharedPreferences prefs = prefs(context);
+        SharedPreferences.Editor editor = prefs.edit().putInt(FAILURES, 0);
+        trackLatestBuild(context, prefs, editor);
+        editor.apply();
+
+        scheduleCheck(context, prefs, withJitter(checkInterval(prefs, System.currentTimeMillis())));
+    }
+
+    /**
+     * Called when a check starts. Schedules a retry in case the process dies before the check
+     * completes, the retry is then replaced by the next check.
+     */
+    public static synchronized void onCheckStarted(Context context) {
+        SharedPreferences prefs = prefs(context);
+        scheduleCheck(context, prefs, withJitter(retryDelay(prefs, prefs.getInt(FAILURES, 0))));
+    }
+
+    /**Called after a failed check. Schedules a retry, backing off exponentially*/
+    public static synchronized void onCheckFailed(Context context) {
+        SharedPreferences prefs = prefs(context);
+        int failures = prefs.getInt(FAILURES, 0);
+        prefs.edit().putInt(FAILURES, failures + 1).apply();
+
+        Log.d(TAG, "check failed " + (failures + 1) + " times in a row");
+        scheduleCheck(context, prefs, withJitter(retryDelay(prefs, failures)));
+    }
+
+    /**Updates the moving average of the interval between builds if a new build was published*/
+    private static void trackLatestBuild(Context context, SharedPreferences prefs,
+                                         SharedPreferences.Editor editor) {
+        BuildDate latest = UpdateStateStore.getInstance(context).getLatestBuildDate();
+        BuildDate lastSeen = BuildDate.parseBuildTime(prefs.getString(LAST_BUILD_SEEN, Constants.EPOCH));
+        if(latest.compareTo(lastSeen) <= 0) return;
+
+        //the first build seen gives no interval
+        if(lastSeen.compareTo(new BuildDate()) != 0) {
+            long sample = toMillis(latest) - toMillis(lastSeen);
+            long average = prefs.getLong(BUILD_INTERVAL, 0);
+            editor.putLong(BUILD_INTERVAL, average == 0 ? sample
+                    : (long) (SMOOTHING * sample + (1 - SMOOTHING) * average));
+        }
+        editor.putString(LAST_BUILD_SEEN, latest.toString());
+    }
+
+    /**
+     * Returns the interval between two checks. If no build was published for longer than usual,
+     * the time since the last build is used as the estimate, so the checks slow down.
+     */
+    private static long checkInterval(SharedPreferences prefs, long now) {
+        long buildInterval = prefs.getLong(BUILD_INTERVAL, 0);
+        if(buildInterval == 0) return Constants.DAY_INTERVAL;
+
+        BuildDate lastSeen = BuildDate.parseBuildTime(prefs.getString(LAST_BUILD_SEEN, Constants.EPOCH));
+        buildInterval = Math.max(buildInterval, now - toMillis(lastSeen));
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, buildInterval / CHECKS_PER_BUILD));
+    }
+
+    /**Returns the delay of the retry after the given number of consecutive failures*/
+    private static long retryDelay(SharedPreferences prefs, int failures) {
+        long interval = checkInterval(prefs, System.currentTimeMillis());
+        return Math.min(RETRY_DELAY << Math.min(failures, 16), interval);
+    }
+
+    private static void scheduleCheck(Context context, SharedPreferences prefs, long delay) {
+        prefs.edit().putLong(NEXT_CHECK, System.currentTimeMillis() + delay).apply();
+
+        Intent intent = new Intent(context, AlarmReceiver.class);
+        AlarmManager alarmMgr = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent alarmIntent = PendingIntent.getBroadcast(context, 0, intent, 0);
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            //drop the daily alarm set by the previous versions
+            alarmMgr.cancel(alarmIntent);
+            CheckUpdateJobService.schedule(context, delay);
+        } else {
+            //inexact from KitKat on, the system batches it with other alarms
+            alarmMgr.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime() + delay,
+                    alarmIntent);
+        }
+        Log.d(TAG, "next update check in " + delay / 60000 + " minutes");
+    }
+
+    private static long withJitter(long delay) {
+        return delay + (long) (random.nextFloat() * JITTER * delay);
+    }
+
+    private static long toMillis(BuildDate date) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(date.getYear(), date.getMonth() - 1, date.getDay(),
+                date.getHour(), date.getMin(), date.getSec());
+        return calendar.getTimeInMillis();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(SCHEDULER_PREFS, Context.MODE_PRIVATE);
+    }
+}
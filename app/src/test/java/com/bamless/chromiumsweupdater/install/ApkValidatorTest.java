@@ -0,0 +1,202 @@
+package com.bamless.chromiumsweupdater.install;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ApkValidatorTest {
+    private final static String PACKAGE = "org.chromium.swe";
+    private final static int VERSION_CODE = 307200052;
+    private final static int EOCD_SIZE = 22;
+    /**Resource id of the versionCode attribute*/
+    private final static int ATTR_VERSION_CODE = 0x0101021b;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsPackageAndVersionCode() throws Exception {
+        ApkValidator.ApkInfo info = ApkValidator.validate(write(apk(ZipEntry.DEFLATED)));
+        assertEquals(PACKAGE, info.getPackageName());
+        assertEquals(VERSION_CODE, info.getVersionCode());
+    }
+
+    @Test
+    public void readsStoredManifest() throws Exception {
+        ApkValidator.ApkInfo info = ApkValidator.validate(write(apk(ZipEntry.STORED)));
+        assertEquals(PACKAGE, info.getPackageName());
+        assertEquals(VERSION_CODE, info.getVersionCode());
+    }
+
+    @Test
+    public void readsVersionCodeWithStrippedName() throws Exception {
+        //shrinkers can blank the attribute names, the resource id is then used
+        ApkValidator.ApkInfo info = ApkValidator.parseManifest(manifest(""));
+        assertEquals(VERSION_CODE, info.getVersionCode());
+    }
+
+    @Test
+    public void rejectsTruncatedApk() throws Exception {
+        byte[] apk = apk(ZipEntry.DEFLATED);
+        assertInvalid(Arrays.copyOf(apk, apk.length - 1));
+        assertInvalid(Arrays.copyOf(apk, apk.length / 2));
+        assertInvalid(Arrays.copyOf(apk, EOCD_SIZE - 1));
+    }
+
+    @Test
+    public void rejectsBadCentralDirectoryOffset() throws Exception {
+        byte[] apk = apk(ZipEntry.DEFLATED);
+        ByteBuffer zip = ByteBuffer.wrap(apk).order(ByteOrder.LITTLE_ENDIAN);
+        int eocd = apk.length - EOCD_SIZE;
+        zip.putInt(eocd + 16, zip.getInt(eocd + 16) + 1);
+        assertInvalid(apk);
+    }
+
+    @Test
+    public void rejectsBadCentralDirectoryEntry() throws Exception {
+        byte[] apk = apk(ZipEntry.DEFLATED);
+        ByteBuffer zip = ByteBuffer.wrap(apk).order(ByteOrder.LITTLE_ENDIAN);
+        zip.putInt(centralDirectory(zip), 0);
+        assertInvalid(apk);
+
+        apk = apk(ZipEntry.DEFLATED);
+        zip = ByteBuffer.wrap(apk).order(ByteOrder.LITTLE_ENDIAN);
+        //local header offset of the entry past the central directory
+        zip.putInt(centralDirectory(zip) + 42, apk.length);
+        assertInvalid(apk);
+    }
+
+    @Test
+    public void rejectsCrcMismatch() throws Exception {
+        byte[] apk = apk(ZipEntry.DEFLATED);
+        ByteBuffer zip = ByteBuffer.wrap(apk).order(ByteOrder.LITTLE_ENDIAN);
+        int crc = centralDirectory(zip) + 16;
+        zip.putInt(crc, ~zip.getInt(crc));
+        assertInvalid(apk);
+    }
+
+    @Test
+    public void rejectsApkWithoutManifest() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.putNextEntry(new ZipEntry("classes.dex"));
+        zip.write(new byte[16]);
+        zip.close();
+        assertInvalid(out.toByteArray());
+    }
+
+    private void assertInvalid(byte[] apk) throws IOException {
+        try {
+            ApkValidator.validate(write(apk));
+            fail("The APK should be rejected");
+        } catch(ApkValidator.InvalidApkException expected) {
+        }
+    }
+
+    private File write(byte[] content) throws IOException {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**@return the offset of the central directory (i.e. of the entry of the manifest), from the EOCD*/
+    private static int centralDirectory(ByteBuffer zip) {
+        return zip.getInt(zip.capacity() - EOCD_SIZE + 16);
+    }
+
+    /**
+     * @return an APK whose only entries are the manifest, compressed with method, and some data.
+     *         The manifest comes first in the central directory
+     */
+    private static byte[] apk(int method) throws IOException {
+        byte[] manifest = manifest("versionCode");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        ZipEntry entry = new ZipEntry(ApkValidator.MANIFEST_ENTRY);
+        entry.setMethod(method);
+        if(method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(manifest);
+            entry.setSize(manifest.length);
+            entry.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(entry);
+        zip.write(manifest);
+        zip.putNextEntry(new ZipEntry("classes.dex"));
+        zip.write(new byte[1024]);
+        zip.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * @param versionCodeName the name of the versionCode attribute in the string pool
+     * @return a binary XML manifest with just the root tag and its package and versionCode
+     */
+    private static byte[] manifest(String versionCodeName) {
+        //the names of the attributes with a resource id come first, matching the resource map
+        String[] strings = {versionCodeName, "package", "manifest", PACKAGE};
+
+        ByteBuffer pool = chunk(0x0001, 28, 28 + strings.length * 4 + stringsSize(strings));
+        pool.putInt(strings.length).putInt(0).putInt(0).putInt(28 + strings.length * 4).putInt(0);
+        int offset = 0;
+        for(String string : strings) {
+            pool.putInt(offset);
+            offset += 2 + string.length() * 2 + 2;
+        }
+        for(String string : strings) {
+            pool.putShort((short) string.length());
+            for(char c : string.toCharArray()) pool.putChar(c);
+            pool.putShort((short) 0);
+        }
+
+        ByteBuffer resourceMap = chunk(0x0180, 8, 12);
+        resourceMap.putInt(ATTR_VERSION_CODE);
+
+        ByteBuffer element = chunk(0x0102, 16, 16 + 20 + 2 * 20);
+        element.putInt(1).putInt(-1);
+        //namespace, name, attributes start, size and count, id, class and style indices
+        element.putInt(-1).putInt(2).putShort((short) 20).putShort((short) 20).putShort((short) 2)
+                .putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        //namespace, name, raw value, typed value (size, res0, type, data)
+        element.putInt(-1).putInt(1).putInt(3).putShort((short) 8).put((byte) 0).put((byte) 0x03).putInt(3);
+        element.putInt(-1).putInt(0).putInt(-1).putShort((short) 8).put((byte) 0).put((byte) 0x10).putInt(VERSION_CODE);
+
+        int size = 8 + pool.capacity() + resourceMap.capacity() + element.capacity();
+        ByteBuffer xml = chunk(0x0003, 8, size);
+        xml.put(pool.array()).put(resourceMap.array()).put(element.array());
+        return xml.array();
+    }
+
+    private static int stringsSize(String[] strings) {
+        int size = 0;
+        for(String string : strings) size += 2 + string.length() * 2 + 2;
+        //chunks are 4 bytes aligned
+        return (size + 3) & ~3;
+    }
+
+    /**@return a chunk with its header filled in, positioned after it*/
+    private static ByteBuffer chunk(int type, int headerSize, int size) {
+        ByteBuffer chunk = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.putShort((short) type).putShort((short) headerSize).putInt(size);
+        return chunk;
+    }
+}
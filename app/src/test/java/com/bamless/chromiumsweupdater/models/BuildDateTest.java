@@ -0,0 +1,146 @@
+package com.bamless.chromiumsweupdater.models;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BuildDateTest {
+
+    @Test
+    public void parsesEveryField() {
+        BuildDate date = BuildDate.parseBuildTime("7/11/2017 9:05:3");
+        assertEquals(7, date.getDay());
+        assertEquals(11, date.getMonth());
+        assertEquals(2017, date.getYear());
+        assertEquals(9, date.getHour());
+        assertEquals(5, date.getMin());
+        assertEquals(3, date.getSec());
+    }
+
+    @Test
+    public void roundTripsThroughToString() {
+        BuildDate date = new BuildDate(31, 12, 2099, 23, 59, 59);
+        assertEquals("31/12/2099 23:59:59", date.toString());
+        assertEquals(date, BuildDate.parseBuildTime(date.toString()));
+
+        date = new BuildDate(1, 2, 2017, 3, 4, 5);
+        assertEquals("01/02/2017 03:04:05", date.toString());
+        assertEquals(date, BuildDate.parseBuildTime(date.toString()));
+        assertEquals("01/02/2017", date.dateToString());
+        assertEquals("03:04:05", date.hourToString());
+    }
+
+    @Test
+    public void formatsCompactString() {
+        assertEquals("20170102030405", new BuildDate(2, 1, 2017, 3, 4, 5).toCompactString());
+        assertEquals("19700101000000", new BuildDate().toCompactString());
+    }
+
+    @Test
+    public void ignoresSurroundingWhitespace() {
+        BuildDate expected = new BuildDate(1, 2, 2017, 3, 4, 5);
+        assertEquals(expected, BuildDate.parseBuildTime("  1/2/2017 3:4:5\n"));
+        assertEquals(expected, BuildDate.parseBuildTime("\t1/2/2017 3:4:5 \r\n"));
+    }
+
+    @Test
+    public void acceptsFebruary29OnlyInLeapYears() {
+        assertEquals(29, BuildDate.parseBuildTime("29/2/2016 0:0:0").getDay());
+        assertEquals(29, BuildDate.parseBuildTime("29/2/2000 0:0:0").getDay());
+        assertMalformed("29/2/2017 0:0:0");
+        assertMalformed("29/2/2100 0:0:0");
+        assertMalformed("30/2/2016 0:0:0");
+    }
+
+    @Test
+    public void rejectsDay31In30DayMonths() {
+        for(int month : new int[] {4, 6, 9, 11}) {
+            assertEquals(30, BuildDate.parseBuildTime("30/" + month + "/2017 0:0:0").getDay());
+            assertMalformed("31/" + month + "/2017 0:0:0");
+        }
+        assertEquals(31, BuildDate.parseBuildTime("31/12/2017 0:0:0").getDay());
+    }
+
+    @Test
+    public void rejectsOutOfRangeFields() {
+        assertMalformed("0/1/2017 0:0:0");
+        assertMalformed("1/0/2017 0:0:0");
+        assertMalformed("1/13/2017 0:0:0");
+        assertMalformed("1/1/1969 0:0:0");
+        assertMalformed("1/1/2017 24:0:0");
+        assertMalformed("1/1/2017 0:60:0");
+        assertMalformed("1/1/2017 0:0:60");
+    }
+
+    @Test
+    public void rejectsMissingOrExtraFields() {
+        assertMalformed("");
+        assertMalformed("   ");
+        assertMalformed("1/2/2017");
+        assertMalformed("1/2/2017 3:4");
+        assertMalformed("1/2/2017 3:4:");
+        assertMalformed("1/2/2017 3:4:5:6");
+        assertMalformed("1/2/2017 3:4:5 6");
+        assertMalformed("1/2/3/2017 3:4:5");
+        assertMalformed("1//2017 3:4:5");
+    }
+
+    @Test
+    public void rejectsWrongSeparators() {
+        assertMalformed("1-2-2017 3:4:5");
+        assertMalformed("1/2/2017T3:4:5");
+        assertMalformed("1/2/2017  3:4:5");
+        assertMalformed("1/2/2017 3.4.5");
+        assertMalformed("1/2/2017 3:4:5s");
+    }
+
+    @Test
+    public void rejectsFieldsLongerThanMaxDigits() {
+        assertEquals(2017, BuildDate.parseBuildTime("0001/0002/2017 0003:0004:0005").getYear());
+        assertMalformed("1/2/02017 3:4:5");
+        assertMalformed("00001/2/2017 3:4:5");
+        assertMalformed("1/2/2017 3:4:00005");
+        //would overflow an int if the digits weren't bounded
+        assertMalformed("1/2/99999999999 3:4:5");
+    }
+
+    @Test
+    public void comparesEveryFieldInOrder() {
+        BuildDate base = new BuildDate(15, 6, 2017, 12, 30, 30);
+        //each date is later than base by a single field, and earlier in all the less significant ones
+        BuildDate[] later = {
+                new BuildDate(1, 1, 2018, 0, 0, 0),
+                new BuildDate(1, 7, 2017, 0, 0, 0),
+                new BuildDate(16, 6, 2017, 0, 0, 0),
+                new BuildDate(15, 6, 2017, 13, 0, 0),
+                new BuildDate(15, 6, 2017, 12, 31, 0),
+                new BuildDate(15, 6, 2017, 12, 30, 31)
+        };
+        for(int i = 0; i < later.length; i++) {
+            assertTrue(later[i] + " > " + base, later[i].compareTo(base) > 0);
+            assertTrue(base + " < " + later[i], base.compareTo(later[i]) < 0);
+            //the more significant a field, the later the date
+            if(i > 0) assertTrue(later[i - 1].compareTo(later[i]) > 0);
+        }
+        assertEquals(0, base.compareTo(new BuildDate(15, 6, 2017, 12, 30, 30)));
+        assertEquals(base.hashCode(), new BuildDate(15, 6, 2017, 12, 30, 30).hashCode());
+    }
+
+    @Test
+    public void comparesFieldsAtTheirMaxValues() {
+        BuildDate max = new BuildDate(31, 12, 9999, 23, 59, 59);
+        assertTrue(max.compareTo(new BuildDate(31, 12, 9998, 23, 59, 59)) > 0);
+        assertTrue(max.compareTo(new BuildDate()) > 0);
+        assertEquals(max, BuildDate.parseBuildTime(max.toString()));
+    }
+
+    private static void assertMalformed(String buildtime) {
+        try {
+            BuildDate.parseBuildTime(buildtime);
+            fail("\"" + buildtime + "\" should be rejected");
+        } catch(IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.bamless.chromiumsweupdater.models;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.reflect.Field;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class UpdateStateStoreTest {
+    private final static String MIRROR = "https://mirror/";
+    private final static String OTHER_MIRROR = "https://other-mirror/";
+    private final static String MANIFEST = MIRROR + "manifest.json";
+
+    private UpdateStateStore store;
+    private int notifications;
+
+    @Before
+    public void setUp() throws Exception {
+        //the store is process wide, start from an empty one
+        Field instance = UpdateStateStore.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, null);
+
+        store = UpdateStateStore.getInstance(RuntimeEnvironment.application);
+        store.addOnStateChangeListener(new UpdateStateStore.OnStateChangeListener() {
+            @Override
+            public void onStateChanged(UpdateStateStore store) {
+                notifications++;
+            }
+        });
+    }
+
+    @Test
+    public void buildDateChangeNotifiesTheListeners() {
+        store.setLatestBuildDate(BuildDate.parseBuildTime("21/5/2017 3:12:45"));
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(1, notifications);
+    }
+
+    @Test
+    public void validatorsAreReloaded() throws Exception {
+        store.setValidators(MANIFEST, "\"m1\"", null);
+        setUp();
+        assertEquals("\"m1\"", store.getEtag(MANIFEST));
+        assertNull(store.getLastModified(MANIFEST));
+    }
+
+    @Test
+    public void completedInstallRecordsThePackage() throws Exception {
+        assertNull(store.getInstalledPackage());
+        store.setPendingInstall(BuildDate.parseBuildTime("21/5/2017 3:12:45"), "org.chromium.swe", 1);
+        assertNull(store.getInstalledPackage());
+
+        store.completePendingInstall();
+        setUp();
+        assertEquals("org.chromium.swe", store.getInstalledPackage());
+    }
+
+    @Test
+    public void missingManifestIsReloadedUntilItExpires() throws Exception {
+        store.setManifestMissing(MIRROR, System.currentTimeMillis() + 60000);
+        store.setManifestMissing(OTHER_MIRROR, System.currentTimeMillis() - 1);
+        setUp();
+        assertTrue(store.isManifestMissing(MIRROR));
+        assertFalse(store.isManifestMissing(OTHER_MIRROR));
+    }
+}
@@ -0,0 +1,124 @@
+package com.bamless.chromiumsweupdater.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BandwidthThrottleTest {
+    private final static long SECOND = 1000000000L;
+    private final static long RATE = 64 * 1024;
+
+    @Test
+    public void unlimitedNeverWaits() throws Exception {
+        FakeClock clock = new FakeClock();
+        BandwidthThrottle throttle = new BandwidthThrottle(BandwidthThrottle.UNLIMITED, clock);
+
+        assertEquals(1024 * 1024, throttle.acquire(1024 * 1024));
+        assertEquals(0, clock.now);
+    }
+
+    @Test
+    public void limitsTheAverageRate() throws Exception {
+        FakeClock clock = new FakeClock();
+        BandwidthThrottle throttle = new BandwidthThrottle(RATE, clock);
+
+        acquireFully(throttle, 10 * RATE);
+        assertEquals(10 * SECOND, clock.now, SECOND / 100);
+    }
+
+    @Test
+    public void burstIsAtMostASecondOfTransfer() throws Exception {
+        FakeClock clock = new FakeClock();
+        BandwidthThrottle throttle = new BandwidthThrottle(RATE, clock);
+
+        clock.now += 60 * SECOND;
+        assertEquals(RATE, throttle.acquire(10 * RATE));
+        assertEquals(60 * SECOND, clock.now);
+    }
+
+    @Test
+    public void rateChangeTakesEffectImmediately() throws Exception {
+        FakeClock clock = new FakeClock();
+        BandwidthThrottle throttle = new BandwidthThrottle(RATE, clock);
+
+        acquireFully(throttle, RATE);
+        throttle.setRate(4 * RATE);
+        long start = clock.now;
+        acquireFully(throttle, 4 * RATE);
+        assertEquals(SECOND, clock.now - start, SECOND / 100);
+    }
+
+    @Test
+    public void releasedBytesCanBeAcquiredAgain() throws Exception {
+        FakeClock clock = new FakeClock();
+        BandwidthThrottle throttle = new BandwidthThrottle(RATE, clock);
+
+        clock.now += SECOND;
+        assertEquals(RATE, throttle.acquire(RATE));
+        throttle.release(RATE / 2);
+        assertEquals(RATE / 2, throttle.acquire(RATE / 2));
+        assertEquals(SECOND, clock.now);
+    }
+
+    @Test
+    public void backgroundSlowsDownWhileTheNetworkIsInUse() throws Exception {
+        final FakeClock clock = new FakeClock();
+        BandwidthThrottle throttle = new BandwidthThrottle(BandwidthThrottle.UNLIMITED, clock);
+        //the other apps download 1 MB/s
+        throttle.setBackground(new BandwidthThrottle.TrafficCounter() {
+            @Override
+            public long totalBytes() {
+                return clock.now * 1024 * 1024 / SECOND;
+            }
+        });
+
+        //the first sample only sets the baseline
+        assertEquals(RATE, throttle.acquire(RATE));
+        clock.now += SECOND;
+        long start = clock.now;
+        //the first second worth of transfer is in the bucket already
+        acquireFully(throttle, 10 * BandwidthThrottle.BACKGROUND_RATE);
+        assertEquals(9 * SECOND, clock.now - start, SECOND / 100);
+    }
+
+    @Test
+    public void backgroundIsUnlimitedWhileTheNetworkIsIdle() throws Exception {
+        FakeClock clock = new FakeClock();
+        BandwidthThrottle throttle = new BandwidthThrottle(BandwidthThrottle.UNLIMITED, clock);
+        throttle.setBackground(new BandwidthThrottle.TrafficCounter() {
+            @Override
+            public long totalBytes() {
+                return 0;
+            }
+        });
+
+        throttle.acquire(RATE);
+        clock.now += SECOND;
+        assertEquals(100 * RATE, throttle.acquire(100 * RATE));
+        assertEquals(SECOND, clock.now);
+    }
+
+    private static void acquireFully(BandwidthThrottle throttle, long byteCount) throws Exception {
+        while(byteCount > 0) {
+            long granted = throttle.acquire(byteCount);
+            assertTrue(granted > 0 && granted <= byteCount);
+            byteCount -= granted;
+        }
+    }
+
+    /**Clock whose sleeps only move the time forward*/
+    static class FakeClock implements BandwidthThrottle.Clock {
+        volatile long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void sleep(long nanos) {
+            now += nanos;
+        }
+    }
+}
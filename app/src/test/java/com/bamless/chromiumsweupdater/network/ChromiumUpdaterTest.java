@@ -0,0 +1,306 @@
+package com.bamless.chromiumsweupdater.network;
+
+import com.bamless.chromiumsweupdater.models.Artifact;
+import com.bamless.chromiumsweupdater.models.BuildDate;
+import com.bamless.chromiumsweupdater.models.UpdateStateStore;
+import com.bamless.chromiumsweupdater.utils.ApkCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class ChromiumUpdaterTest {
+    private final static String BUILD = "21/5/2017 3:12:45";
+    private final static String MANIFEST = "{\"artifacts\": [{\"channel\": \"stable\", \"abi\": \""
+            + Artifact.ABI_UNIVERSAL + "\", \"build\": \"" + BUILD + "\", \"path\": \"chromium-swe.apk\"}]}";
+    private final static String LAST_MODIFIED = "Sun, 21 May 2017 03:12:45 GMT";
+    private final static long TIMEOUT = 10000;
+    /**Retries without waiting*/
+    private final static RetryPolicy RETRY = new RetryPolicy(3, 0, 0);
+
+    private MockWebServer server;
+    private Repo repo;
+
+    @Before
+    public void setUp() throws Exception {
+        //the store is process wide, start from an empty one
+        Field instance = UpdateStateStore.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, null);
+        MirrorSelectorTest.clearMirrors();
+
+        repo = new Repo();
+        server = new MockWebServer();
+        server.setDispatcher(repo);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void notModifiedManifestIsNotParsedAgain() throws Exception {
+        repo.enqueue("/manifest.json", new MockResponse()
+                .setHeader("ETag", "\"m1\"")
+                .setHeader("Last-Modified", LAST_MODIFIED)
+                .setBody(MANIFEST));
+        repo.enqueue("/manifest.json", new MockResponse().setResponseCode(304));
+        ChromiumUpdater updater = updater(server);
+
+        assertEquals(Boolean.TRUE, checkForUpdate(updater));
+        Artifact artifact = UpdateStateStore.getInstance(RuntimeEnvironment.application).getLatestArtifact();
+        assertNotNull(artifact);
+        assertNull(takeGet(server).getHeader("If-None-Match"));
+
+        assertEquals(Boolean.TRUE, checkForUpdate(updater));
+        RecordedRequest conditional = takeGet(server);
+        assertEquals("/manifest.json", conditional.getPath());
+        assertEquals("\"m1\"", conditional.getHeader("If-None-Match"));
+        assertEquals(LAST_MODIFIED, conditional.getHeader("If-Modified-Since"));
+        //a parsed manifest would have replaced the artifact
+        assertSame(artifact, UpdateStateStore.getInstance(RuntimeEnvironment.application).getLatestArtifact());
+        assertNull(server.takeRequest(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void validatorsAreKeptPerFile() throws Exception {
+        repo.enqueue("/build", new MockResponse()
+                .setHeader("ETag", "\"b1\"")
+                .setBody(BUILD));
+        repo.enqueue("/build", new MockResponse().setResponseCode(304));
+        ChromiumUpdater updater = updater(server);
+
+        assertEquals(Boolean.TRUE, checkForUpdate(updater));
+        assertEquals("/manifest.json", takeGet(server).getPath());
+        assertEquals("/build", takeGet(server).getPath());
+
+        //the manifest was found missing, only the build file is fetched
+        assertEquals(Boolean.TRUE, checkForUpdate(updater));
+        RecordedRequest build = takeGet(server);
+        assertEquals("/build", build.getPath());
+        assertEquals("\"b1\"", build.getHeader("If-None-Match"));
+        assertNull(server.takeRequest(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void missingManifestIsLookedForAgainOnceExpired() throws Exception {
+        UpdateStateStore.getInstance(RuntimeEnvironment.application)
+                .setManifestMissing(server.url("/").toString(), System.currentTimeMillis() - 1);
+        repo.enqueue("/manifest.json", new MockResponse().setBody(MANIFEST));
+
+        assertEquals(Boolean.TRUE, checkForUpdate(updater(server)));
+        assertEquals("/manifest.json", takeGet(server).getPath());
+        assertNull(server.takeRequest(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void validatorsAreKeptPerMirror() throws Exception {
+        repo.enqueue("/manifest.json", new MockResponse()
+                .setHeader("ETag", "\"m1\"")
+                .setBody(MANIFEST));
+        assertEquals(Boolean.TRUE, checkForUpdate(updater(server)));
+        takeGet(server);
+
+        MockWebServer other = new MockWebServer();
+        Repo otherRepo = new Repo();
+        other.setDispatcher(otherRepo);
+        other.start();
+        try {
+            otherRepo.enqueue("/manifest.json", new MockResponse().setBody(MANIFEST));
+            assertEquals(Boolean.TRUE, checkForUpdate(updater(other)));
+            RecordedRequest manifest = takeGet(other);
+            assertEquals("/manifest.json", manifest.getPath());
+            assertNull(manifest.getHeader("If-None-Match"));
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void serverErrorIsRetried() throws Exception {
+        repo.enqueue("/manifest.json", new MockResponse().setResponseCode(503));
+        repo.enqueue("/manifest.json", new MockResponse().setBody(MANIFEST));
+
+        assertEquals(Boolean.TRUE, checkForUpdate(updater(server, RETRY)));
+        assertEquals("/manifest.json", takeGet(server).getPath());
+        assertEquals("/manifest.json", takeGet(server).getPath());
+    }
+
+    @Test
+    public void truncatedResponseIsRetried() throws Exception {
+        repo.enqueue("/manifest.json", new MockResponse()
+                .setBody(MANIFEST)
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        repo.enqueue("/manifest.json", new MockResponse().setBody(MANIFEST));
+
+        assertEquals(Boolean.TRUE, checkForUpdate(updater(server, RETRY)));
+        assertEquals("/manifest.json", takeGet(server).getPath());
+        assertEquals("/manifest.json", takeGet(server).getPath());
+    }
+
+    @Test
+    public void resetConnectionIsRetried() throws Exception {
+        repo.enqueue("/manifest.json", new MockResponse()
+                .setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        repo.enqueue("/manifest.json", new MockResponse().setBody(MANIFEST));
+
+        assertEquals(Boolean.TRUE, checkForUpdate(updater(server, RETRY)));
+        assertEquals("/manifest.json", takeGet(server).getPath());
+        assertEquals("/manifest.json", takeGet(server).getPath());
+    }
+
+    @Test
+    public void notFoundIsNotRetried() throws Exception {
+        //no manifest and no build file
+        assertNull(checkForUpdate(updater(server, RETRY)));
+        assertEquals("/manifest.json", takeGet(server).getPath());
+        assertEquals("/build", takeGet(server).getPath());
+        assertNull(server.takeRequest(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void notFoundDoesNotCountAgainstTheMirror() throws Exception {
+        MockWebServer slow = new MockWebServer();
+        Repo slowRepo = new Repo();
+        slowRepo.delay = 300;
+        slow.setDispatcher(slowRepo);
+        slow.start();
+        try {
+            List<String> mirrors = Arrays.asList(server.url("/").toString(), slow.url("/").toString());
+            ChromiumUpdater updater = new ChromiumUpdater(RuntimeEnvironment.application, mirrors);
+            updater.setRetryPolicy(RetryPolicy.NONE);
+            //the best mirror misses the files, the next one has them
+            slowRepo.enqueue("/manifest.json", new MockResponse().setBody(MANIFEST));
+            assertEquals(Boolean.TRUE, checkForUpdate(updater));
+            assertEquals("/manifest.json", takeGet(server).getPath());
+            assertEquals("/build", takeGet(server).getPath());
+
+            MirrorSelector selector = new MirrorSelector(new OkHttpClient(), mirrors, "build");
+            assertEquals(server.url("/").toString(), selector.rank().get(0).getBaseUrl());
+        } finally {
+            slow.shutdown();
+        }
+    }
+
+    @Test
+    public void completedInstallKeepsTheDownloadOfTheLatestBuild() throws Exception {
+        Field instance = ApkCache.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, null);
+        ApkCache cache = ApkCache.getInstance(RuntimeEnvironment.application);
+        UpdateStateStore state = UpdateStateStore.getInstance(RuntimeEnvironment.application);
+        BuildDate installed = BuildDate.parseBuildTime("11/5/2017 3:12:45");
+        BuildDate latest = BuildDate.parseBuildTime(BUILD);
+        state.setPendingInstall(installed, "org.chromium.swe", 1);
+        state.setLatestBuildDate(latest);
+        File part = new File(cache.fileFor(latest).getPath() + ResumableDownload.PART_SUFFIX);
+        assertTrue(part.createNewFile());
+
+        ChromiumUpdater.completeInstall(RuntimeEnvironment.application);
+        assertEquals(installed, state.getInstalledBuildDate());
+        assertTrue(part.exists());
+    }
+
+    private static ChromiumUpdater updater(MockWebServer server) {
+        return updater(server, RetryPolicy.NONE);
+    }
+
+    private static ChromiumUpdater updater(MockWebServer server, RetryPolicy retryPolicy) {
+        ChromiumUpdater updater = new ChromiumUpdater(RuntimeEnvironment.application,
+                Collections.singletonList(server.url("/").toString()));
+        updater.setRetryPolicy(retryPolicy);
+        return updater;
+    }
+
+    /**Runs a check, waiting for its result to be posted to the main thread*/
+    private static Boolean checkForUpdate(ChromiumUpdater updater) throws InterruptedException {
+        final Boolean[] result = new Boolean[1];
+        final boolean[] returned = new boolean[1];
+        updater.checkForUpdate(new ChromiumUpdater.ReturnCallback<Boolean>() {
+            @Override
+            public void onReturn(Boolean value) {
+                result[0] = value;
+                returned[0] = true;
+            }
+        });
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while(!returned[0]) {
+            if(System.currentTimeMillis() > deadline) fail("The check didn't return");
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+        }
+        return result[0];
+    }
+
+    /**@return the next GET received, skipping the probes of the mirror*/
+    private static RecordedRequest takeGet(MockWebServer server) throws InterruptedException {
+        while(true) {
+            RecordedRequest request = server.takeRequest(TIMEOUT, TimeUnit.MILLISECONDS);
+            assertNotNull(request);
+            if(request.getMethod().equals("GET")) return request;
+        }
+    }
+
+    /**Answers the probes, and the GETs with the responses queued for their path (404 if none)*/
+    private static class Repo extends Dispatcher {
+        private final Map<String, Queue<MockResponse>> responses = new HashMap<>();
+        /**Delay of every answer (in milliseconds)*/
+        volatile long delay;
+
+        synchronized void enqueue(String path, MockResponse response) {
+            Queue<MockResponse> queue = responses.get(path);
+            if(queue == null) {
+                queue = new LinkedList<>();
+                responses.put(path, queue);
+            }
+            queue.add(response);
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            Thread.sleep(delay);
+            if(request.getMethod().equals("HEAD")) return new MockResponse();
+            MockResponse response;
+            synchronized(this) {
+                Queue<MockResponse> queue = responses.get(request.getPath());
+                response = queue == null ? null : queue.poll();
+            }
+            return response != null ? response : new MockResponse().setResponseCode(404);
+        }
+    }
+}
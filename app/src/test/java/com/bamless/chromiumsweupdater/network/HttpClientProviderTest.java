@@ -0,0 +1,86 @@
+package com.bamless.chromiumsweupdater.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class HttpClientProviderTest {
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void clientIsShared() {
+        assertSame(HttpClientProvider.get(RuntimeEnvironment.application),
+                HttpClientProvider.get(RuntimeEnvironment.application));
+    }
+
+    @Test
+    public void checkAndDownloadShareTheConnection() throws Exception {
+        OkHttpClient http = HttpClientProvider.get(RuntimeEnvironment.application);
+        server.enqueue(new MockResponse().setBody("21/5/2017 3:12:45"));
+        server.enqueue(new MockResponse().setBody("apk"));
+
+        get(http, "/build");
+        get(http, "/chromium-swe.apk");
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        //the second request went on the warm connection of the first one
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void derivedClientsShareTheConnections() throws Exception {
+        OkHttpClient http = HttpClientProvider.get(RuntimeEnvironment.application);
+        //configured like the probes of the MirrorSelector
+        OkHttpClient derived = http.newBuilder()
+                .readTimeout(5, TimeUnit.SECONDS)
+                .build();
+        server.enqueue(new MockResponse());
+        server.enqueue(new MockResponse().setBody("apk"));
+
+        get(derived, "/manifest.json");
+        get(http, "/chromium-swe.apk");
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+    }
+
+    private void get(OkHttpClient http, String path) throws IOException {
+        Request request = new Request.Builder()
+                .url(server.url(path))
+                .cacheControl(ResumableDownload.NO_STORE)
+                .build();
+        Response response = http.newCall(request).execute();
+        try {
+            response.body().string();
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.bamless.chromiumsweupdater.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.QueueDispatcher;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class MirrorSelectorTest {
+    private final static String PROBE = "build";
+    /**Latency added by the slow mirror (in milliseconds)*/
+    private final static long DELAY = 500;
+
+    private final OkHttpClient http = new OkHttpClient();
+    private MockWebServer fast;
+    private MockWebServer slow;
+
+    @Before
+    public void setUp() throws Exception {
+        clearMirrors();
+        fast = new MockWebServer();
+        slow = new MockWebServer();
+        slow.setDispatcher(new DelayedDispatcher(DELAY));
+        fast.start();
+        slow.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fast.shutdown();
+        slow.shutdown();
+    }
+
+    @Test
+    public void fastestMirrorComesFirst() {
+        slow.enqueue(new MockResponse());
+        fast.enqueue(new MockResponse());
+        //the slow mirror is preferred until the mirrors are scored
+        MirrorSelector selector = selector(slow, fast);
+
+        List<MirrorSelector.Mirror> ranked = selector.rank();
+        assertEquals(baseUrl(fast), ranked.get(0).getBaseUrl());
+        assertEquals(baseUrl(slow), ranked.get(1).getBaseUrl());
+    }
+
+    @Test
+    public void failingMirrorComesLast() {
+        fast.enqueue(new MockResponse().setResponseCode(503));
+        slow.enqueue(new MockResponse());
+        MirrorSelector selector = selector(fast, slow);
+
+        List<MirrorSelector.Mirror> ranked = selector.rank();
+        assertEquals(baseUrl(slow), ranked.get(0).getBaseUrl());
+        assertEquals(baseUrl(fast), ranked.get(1).getBaseUrl());
+    }
+
+    @Test
+    public void reportedFailureMovesTheMirrorLast() {
+        fast.enqueue(new MockResponse());
+        slow.enqueue(new MockResponse());
+        MirrorSelector selector = selector(fast, slow);
+        MirrorSelector.Mirror best = selector.rank().get(0);
+        assertEquals(baseUrl(fast), best.getBaseUrl());
+
+        selector.reportFailure(best);
+        assertEquals(baseUrl(slow), selector.rank().get(0).getBaseUrl());
+    }
+
+    @Test
+    public void probeResolvesTheRedirect() {
+        //the base url redirects to another host, as github.com/.../raw/ does
+        String resolved = slow.url("/raw/").toString();
+        fast.enqueue(new MockResponse()
+                .setResponseCode(302)
+                .setHeader("Location", resolved + PROBE));
+        slow.enqueue(new MockResponse());
+        slow.enqueue(new MockResponse());
+        MirrorSelector selector = selector(fast, slow);
+
+        for(MirrorSelector.Mirror mirror : selector.rank()) {
+            if(mirror.getBaseUrl().equals(baseUrl(fast)))
+                assertEquals(resolved + "chromium-swe.apk", mirror.url("chromium-swe.apk"));
+        }
+    }
+
+    @Test
+    public void singleMirrorIsNotProbed() throws Exception {
+        MirrorSelector selector = selector(fast);
+        assertEquals(baseUrl(fast), selector.rank().get(0).getBaseUrl());
+        assertEquals(0, fast.getRequestCount());
+    }
+
+    @Test
+    public void scoredMirrorsAreNotProbed() throws Exception {
+        //scored by transfers through selectors of a single mirror, the slow one being faster
+        MirrorSelector fastOnly = selector(fast);
+        fastOnly.reportSuccess(fastOnly.rank().get(0), 400, 0, 0);
+        MirrorSelector slowOnly = selector(slow);
+        slowOnly.reportSuccess(slowOnly.rank().get(0), 100, 0, 0);
+
+        assertEquals(baseUrl(slow), selector(fast, slow).rank().get(0).getBaseUrl());
+        assertEquals(0, fast.getRequestCount() + slow.getRequestCount());
+    }
+
+    @Test
+    public void transferResolvesTheRedirect() {
+        MirrorSelector selector = selector(fast);
+        MirrorSelector.Mirror mirror = selector.rank().get(0);
+
+        String resolved = slow.url("/raw/").toString();
+        selector.resolve(mirror, resolved + "manifest.json", "manifest.json");
+        assertEquals(resolved + "chromium-swe.apk", mirror.url("chromium-swe.apk"));
+        //a failure resolves it again
+        selector.reportFailure(mirror);
+        assertEquals(baseUrl(fast) + "chromium-swe.apk", mirror.url("chromium-swe.apk"));
+    }
+
+    /**Forgets the state of the mirrors, which is process wide while the ports of the servers get reused*/
+    static void clearMirrors() throws Exception {
+        Field registry = MirrorSelector.class.getDeclaredField("registry");
+        registry.setAccessible(true);
+        Map<?, ?> mirrors = (Map<?, ?>) registry.get(null);
+        synchronized(mirrors) {
+            mirrors.clear();
+        }
+    }
+
+    private MirrorSelector selector(MockWebServer... servers) {
+        String[] baseUrls = new String[servers.length];
+        for(int i = 0; i < servers.length; i++)
+            baseUrls[i] = baseUrl(servers[i]);
+        return new MirrorSelector(http, Arrays.asList(baseUrls), PROBE);
+    }
+
+    private static String baseUrl(MockWebServer server) {
+        return server.url("/").toString();
+    }
+
+    /**Answers with the responses enqueued, after a delay*/
+    private static class DelayedDispatcher extends QueueDispatcher {
+        private final long delay;
+
+        DelayedDispatcher(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            Thread.sleep(delay);
+            return super.dispatch(request);
+        }
+    }
+}
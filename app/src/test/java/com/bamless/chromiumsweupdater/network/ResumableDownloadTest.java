@@ -0,0 +1,222 @@
+package com.bamless.chromiumsweupdater.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import okio.ByteString;
+import okio.Okio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResumableDownloadTest {
+    private final static String ETAG = "\"v1\"";
+    private final static int SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private OkHttpClient http;
+    private String url;
+    private File destination;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        http = new OkHttpClient();
+        url = server.url("/chromium-swe.apk").toString();
+        destination = new File(folder.getRoot(), "chromium-swe.apk");
+        content = new byte[SIZE];
+        new Random(0).nextBytes(content);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void resumesWithRangeAndIfRange() throws Exception {
+        int offset = 20000;
+        savePartial(offset, ETAG);
+        server.enqueue(new MockResponse().setResponseCode(206)
+                .setHeader("ETag", ETAG)
+                .setHeader("Content-Range", "bytes " + offset + "-" + (SIZE - 1) + "/" + SIZE)
+                .setBody(body(offset)));
+
+        ResumableDownload download = new ResumableDownload(http, url, destination);
+        assertTrue(download.canResume());
+        download.execute();
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("bytes=" + offset + "-", request.getHeader("Range"));
+        assertEquals(ETAG, request.getHeader("If-Range"));
+        assertArrayEquals(content, read(destination));
+        assertLeftoversDeleted();
+    }
+
+    @Test
+    public void resumesWithLastModifiedIfEtagIsWeak() throws Exception {
+        int offset = 1000;
+        String lastModified = "Tue, 02 May 2017 09:32:56 GMT";
+        write(new File(destination.getPath() + ResumableDownload.PART_SUFFIX), offset);
+        ResumableDownload.savePartial(destination, url, "W/" + ETAG, lastModified, offset);
+        server.enqueue(new MockResponse().setResponseCode(206)
+                .setHeader("Content-Range", "bytes " + offset + "-" + (SIZE - 1) + "/" + SIZE)
+                .setBody(body(offset)));
+
+        new ResumableDownload(http, url, destination).execute();
+
+        assertEquals(lastModified, server.takeRequest().getHeader("If-Range"));
+        assertArrayEquals(content, read(destination));
+    }
+
+    @Test
+    public void restartsFromZeroIfTheResourceChanged() throws Exception {
+        savePartial(20000, ETAG);
+        //If-Range didn't match: the server sends the whole new resource
+        byte[] changed = content.clone();
+        changed[0]++;
+        changed[SIZE - 1]++;
+        server.enqueue(new MockResponse()
+                .setHeader("ETag", "\"v2\"")
+                .setBody(new Buffer().write(changed)));
+
+        new ResumableDownload(http, url, destination).execute();
+
+        assertEquals(ETAG, server.takeRequest().getHeader("If-Range"));
+        assertArrayEquals(changed, read(destination));
+        assertLeftoversDeleted();
+    }
+
+    @Test
+    public void restartsFromZeroOnRangeNotSatisfiable() throws Exception {
+        savePartial(20000, ETAG);
+        server.enqueue(new MockResponse().setResponseCode(416)
+                .setHeader("Content-Range", "bytes */" + 10000));
+        server.enqueue(new MockResponse()
+                .setHeader("ETag", ETAG)
+                .setBody(body(0)));
+
+        new ResumableDownload(http, url, destination).execute();
+
+        assertEquals("bytes=20000-", server.takeRequest().getHeader("Range"));
+        RecordedRequest retry = server.takeRequest();
+        assertNull(retry.getHeader("Range"));
+        assertNull(retry.getHeader("If-Range"));
+        assertArrayEquals(content, read(destination));
+    }
+
+    @Test
+    public void resumesWhereAFailedDownloadStopped() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            private boolean failed;
+
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if(!failed) {
+                    failed = true;
+                    return new MockResponse()
+                            .setHeader("ETag", ETAG)
+                            .setBody(body(0))
+                            .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+                }
+                int offset = Integer.parseInt(request.getHeader("Range").replaceAll("\\D", ""));
+                return new MockResponse().setResponseCode(206)
+                        .setHeader("ETag", ETAG)
+                        .setHeader("Content-Range", "bytes " + offset + "-" + (SIZE - 1) + "/" + SIZE)
+                        .setBody(body(offset));
+            }
+        });
+
+        ResumableDownload download = new ResumableDownload(http, url, destination);
+        try {
+            download.execute();
+            fail("The download should fail");
+        } catch(IOException expected) {
+        }
+        assertFalse(destination.exists());
+        assertTrue(download.canResume());
+
+        download.execute();
+
+        assertNull(server.takeRequest().getHeader("Range"));
+        RecordedRequest resumed = server.takeRequest();
+        assertTrue(resumed.getHeader("Range").matches("bytes=[1-9][0-9]*-"));
+        assertEquals(ETAG, resumed.getHeader("If-Range"));
+        assertArrayEquals(content, read(destination));
+        assertLeftoversDeleted();
+    }
+
+    @Test
+    public void deletesTheFileOnChecksumMismatch() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("ETag", ETAG)
+                .setBody(body(0)));
+
+        ResumableDownload download = new ResumableDownload(http, url, destination);
+        download.setExpectedSha256(ByteString.of(new byte[32]));
+        try {
+            download.execute();
+            fail("The download should fail");
+        } catch(IOException expected) {
+        }
+        assertFalse(destination.exists());
+        assertFalse(download.canResume());
+        assertLeftoversDeleted();
+    }
+
+    /**Leaves the first offset bytes of the content as a partial download*/
+    private void savePartial(int offset, String etag) throws IOException {
+        write(new File(destination.getPath() + ResumableDownload.PART_SUFFIX), offset);
+        ResumableDownload.savePartial(destination, url, etag, null, offset);
+    }
+
+    private void write(File file, int length) throws IOException {
+        okio.BufferedSink sink = Okio.buffer(Okio.sink(file));
+        try {
+            sink.write(content, 0, length);
+        } finally {
+            sink.close();
+        }
+    }
+
+    private Buffer body(int offset) {
+        return new Buffer().write(content, offset, SIZE - offset);
+    }
+
+    private static byte[] read(File file) throws IOException {
+        okio.BufferedSource source = Okio.buffer(Okio.source(file));
+        try {
+            return source.readByteArray();
+        } finally {
+            source.close();
+        }
+    }
+
+    private void assertLeftoversDeleted() {
+        assertFalse(new File(destination.getPath() + ResumableDownload.PART_SUFFIX).exists());
+        assertFalse(new File(destination.getPath() + ResumableDownload.META_SUFFIX).exists());
+    }
+}
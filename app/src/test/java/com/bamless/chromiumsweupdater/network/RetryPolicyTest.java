@@ -0,0 +1,133 @@
+package com.bamless.chromiumsweupdater.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.internal.http2.ErrorCode;
+import okhttp3.internal.http2.StreamResetException;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+    private MockWebServer server;
+    private OkHttpClient http;
+    private final RetryPolicy policy = new RetryPolicy();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        http = new OkHttpClient.Builder()
+                .readTimeout(1, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void truncatedBodyIsRetriable() {
+        server.enqueue(new MockResponse()
+                .setBody(new Buffer().write(new byte[64 * 1024]))
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        assertTrue(policy.isRetriable(fetch()));
+    }
+
+    @Test
+    public void resetConnectionIsRetriable() {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        assertTrue(policy.isRetriable(fetch()));
+    }
+
+    @Test
+    public void timeoutIsRetriable() {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        assertTrue(policy.isRetriable(fetch()));
+    }
+
+    @Test
+    public void serverErrorIsRetriable() {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        assertTrue(policy.isRetriable(fetch()));
+    }
+
+    @Test
+    public void resetStreamIsRetriable() {
+        //matched by name, fails if okhttp moves the class
+        assertTrue(policy.isRetriable(new StreamResetException(ErrorCode.REFUSED_STREAM)));
+    }
+
+    @Test
+    public void notFoundIsNotRetriable() {
+        server.enqueue(new MockResponse().setResponseCode(404));
+        assertFalse(policy.isRetriable(fetch()));
+    }
+
+    @Test
+    public void canceledCallIsNotRetriable() {
+        server.enqueue(new MockResponse().setBodyDelay(1, TimeUnit.SECONDS).setBody("build"));
+        Call call = http.newCall(new Request.Builder().url(server.url("/build")).build());
+        call.cancel();
+        try {
+            call.execute().close();
+            fail("The call wasn't canceled");
+        } catch(IOException e) {
+            assertFalse(policy.isRetriable(e));
+        }
+    }
+
+    @Test
+    public void attemptsAreBounded() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+        assertTrue(policy.canRetry(1));
+        assertTrue(policy.canRetry(2));
+        assertFalse(policy.canRetry(3));
+        assertFalse(RetryPolicy.NONE.canRetry(1));
+    }
+
+    @Test
+    public void delayGrowsUpToTheMax() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        for(int i = 0; i < 100; i++) {
+            long first = policy.getDelay(1), third = policy.getDelay(3), last = policy.getDelay(10);
+            assertTrue(first >= 50 && first <= 100);
+            assertTrue(third >= 200 && third <= 400);
+            assertTrue(last >= 500 && last <= 1000);
+        }
+    }
+
+    /**@return the failure of a GET whose body is read fully*/
+    private IOException fetch() {
+        try {
+            Response response = http.newCall(new Request.Builder().url(server.url("/build")).build()).execute();
+            try {
+                if(!response.isSuccessful())
+                    throw new HttpStatusException("Unexpected response", response);
+                response.body().bytes();
+            } finally {
+                response.close();
+            }
+        } catch(IOException e) {
+            return e;
+        }
+        fail("The request didn't fail");
+        return null;
+    }
+}
@@ -0,0 +1,157 @@
+package com.bamless.chromiumsweupdater.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.Okio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentedDownloadTest {
+    private final static String ETAG = "\"v1\"";
+    /**Two segments*/
+    private final static int SIZE = 2 * 1024 * 1024;
+    /**Time it takes to send the first segment when the second one fails (in milliseconds)*/
+    private final static long SLOW_SEGMENT_TIME = 1600;
+    private final static Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private Repo repo;
+    private OkHttpClient http;
+    private String url;
+    private File destination;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[SIZE];
+        new Random(0).nextBytes(content);
+        repo = new Repo();
+        server = new MockWebServer();
+        server.setDispatcher(repo);
+        server.start();
+        http = new OkHttpClient();
+        url = server.url("/chromium-swe.apk").toString();
+        destination = new File(folder.getRoot(), "chromium-swe.apk");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void downloadsTheSegments() throws Exception {
+        assertTrue(new SegmentedDownload(http, url, destination, 2, null).execute());
+        assertArrayEquals(content, read(destination));
+        assertLeftoversDeleted();
+    }
+
+    @Test
+    public void keepsWhatTheOtherSegmentsWroteWhenOneFails() throws Exception {
+        repo.failSecondSegment = true;
+        long start = System.nanoTime();
+        try {
+            new SegmentedDownload(http, url, destination, 2, null).execute();
+            fail("The download should fail");
+        } catch(IOException expected) {
+        }
+        //the failure stopped the first segment halfway
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < SLOW_SEGMENT_TIME);
+
+        ResumableDownload resumed = new ResumableDownload(http, url, destination);
+        assertTrue(resumed.canResume());
+        repo.failSecondSegment = false;
+        resumed.execute();
+        assertArrayEquals(content, read(destination));
+        assertLeftoversDeleted();
+    }
+
+    @Test
+    public void keepsNothingWithoutAStrongValidator() throws Exception {
+        repo.etag = "W/" + ETAG;
+        repo.failSecondSegment = true;
+        try {
+            new SegmentedDownload(http, url, destination, 2, null).execute();
+            fail("The download should fail");
+        } catch(IOException expected) {
+        }
+
+        assertFalse(new ResumableDownload(http, url, destination).canResume());
+        assertLeftoversDeleted();
+    }
+
+    private static byte[] read(File file) throws IOException {
+        okio.BufferedSource source = Okio.buffer(Okio.source(file));
+        try {
+            return source.readByteArray();
+        } finally {
+            source.close();
+        }
+    }
+
+    private void assertLeftoversDeleted() {
+        assertFalse(new File(destination.getPath() + ResumableDownload.PART_SUFFIX).exists());
+        assertFalse(new File(destination.getPath() + ResumableDownload.META_SUFFIX).exists());
+    }
+
+    /**
+     * Serves the content with byte ranges. The first segment is sent slowly, so that it is still
+     * being written when the second one fails.
+     */
+    private class Repo extends Dispatcher {
+        volatile String etag = ETAG;
+        volatile boolean failSecondSegment;
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            if(request.getMethod().equals("HEAD")) {
+                return new MockResponse()
+                        .setHeader("Accept-Ranges", "bytes")
+                        .setHeader("ETag", etag)
+                        .setHeader("Content-Length", SIZE);
+            }
+            String range = request.getHeader("Range");
+            if(range == null)
+                return new MockResponse().setHeader("ETag", etag).setBody(new Buffer().write(content));
+
+            Matcher matcher = RANGE.matcher(range);
+            if(!matcher.matches()) return new MockResponse().setResponseCode(416);
+            int start = Integer.parseInt(matcher.group(1));
+            int end = matcher.group(2).isEmpty() ? SIZE - 1 : Integer.parseInt(matcher.group(2));
+            if(start > 0 && failSecondSegment) {
+                Thread.sleep(300);
+                return new MockResponse().setResponseCode(500);
+            }
+            MockResponse response = new MockResponse().setResponseCode(206)
+                    .setHeader("ETag", etag)
+                    .setHeader("Content-Range", "bytes " + start + "-" + end + "/" + SIZE)
+                    .setBody(new Buffer().write(content, start, end - start + 1));
+            if(start == 0 && failSecondSegment)
+                response.throttleBody(SIZE / 2 / 32, SLOW_SEGMENT_TIME / 32, TimeUnit.MILLISECONDS);
+            return response;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.bamless.chromiumsweupdater.network;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ThrottledSourceTest {
+    private final static long SECOND = 1000000000L;
+    private final static long RATE = 64 * 1024;
+    private final static long CHUNK = 8192;
+
+    @Test
+    public void readsAtTheRateOfTheThrottle() throws Exception {
+        BandwidthThrottleTest.FakeClock clock = new BandwidthThrottleTest.FakeClock();
+        byte[] content = new byte[(int) (5 * RATE)];
+        new Random(0).nextBytes(content);
+
+        BufferedSource source = Okio.buffer(new ThrottledSource(new Buffer().write(content),
+                new BandwidthThrottle(RATE, clock)));
+        assertArrayEquals(content, source.readByteArray(content.length));
+        assertEquals(5 * SECOND, clock.now, SECOND / 100);
+    }
+
+    @Test
+    public void sourcesSharingAThrottleShareItsBandwidth() throws Exception {
+        BandwidthThrottleTest.FakeClock clock = new BandwidthThrottleTest.FakeClock();
+        BandwidthThrottle throttle = new BandwidthThrottle(RATE, clock);
+        ThrottledSource first = new ThrottledSource(new Buffer().write(new byte[(int) (3 * RATE)]), throttle);
+        ThrottledSource second = new ThrottledSource(new Buffer().write(new byte[(int) (3 * RATE)]), throttle);
+
+        //interleaved reads, as two transfers running at once
+        Buffer sink = new Buffer();
+        for(int i = 0; i < 3 * RATE / CHUNK; i++) {
+            assertEquals(CHUNK, first.read(sink, CHUNK));
+            assertEquals(CHUNK, second.read(sink, CHUNK));
+        }
+        assertEquals(6 * RATE, sink.size());
+        assertEquals(6 * SECOND, clock.now, SECOND / 100);
+    }
+
+    @Test
+    public void bytesNotReadAreGivenBack() throws Exception {
+        BandwidthThrottleTest.FakeClock clock = new BandwidthThrottleTest.FakeClock();
+        BandwidthThrottle throttle = new BandwidthThrottle(RATE, clock);
+        clock.now += SECOND;
+
+        //a short read only spends the bytes actually read
+        ThrottledSource shortSource = new ThrottledSource(new Buffer().write(new byte[100]), throttle);
+        Buffer sink = new Buffer();
+        assertEquals(100, shortSource.read(sink, RATE));
+        assertEquals(-1, shortSource.read(sink, RATE));
+        assertEquals(RATE - 100, throttle.acquire(RATE));
+        assertEquals(SECOND, clock.now);
+    }
+}
@@ -0,0 +1,107 @@
+package com.bamless.chromiumsweupdater.utils;
+
+import com.bamless.chromiumsweupdater.models.BuildDate;
+import com.bamless.chromiumsweupdater.network.ResumableDownload;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class ApkCacheTest {
+    private final static int SIZE = 1024;
+    private final static BuildDate OLD = BuildDate.parseBuildTime("1/5/2017 3:12:45");
+    private final static BuildDate INSTALLED = BuildDate.parseBuildTime("11/5/2017 3:12:45");
+    private final static BuildDate LATEST = BuildDate.parseBuildTime("21/5/2017 3:12:45");
+
+    private ApkCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        //the cache is process wide, start from an empty one
+        Field instance = ApkCache.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, null);
+        cache = ApkCache.getInstance(RuntimeEnvironment.application);
+        cache.setMaxBytes(2 * SIZE);
+    }
+
+    @Test
+    public void leastRecentlyUsedApkIsEvicted() throws Exception {
+        add(OLD);
+        add(INSTALLED);
+        assertNotNull(cache.get(OLD));
+        add(LATEST);
+
+        assertNotNull(cache.get(OLD));
+        assertNull(cache.get(INSTALLED));
+        assertNotNull(cache.get(LATEST));
+    }
+
+    @Test
+    public void pinnedApksAreNotEvicted() throws Exception {
+        cache.setMaxBytes(0);
+        add(OLD);
+        add(INSTALLED, OLD);
+        assertNotNull(cache.get(OLD));
+        assertNotNull(cache.get(INSTALLED));
+
+        cache.trim(INSTALLED);
+        assertNull(cache.get(OLD));
+        assertNotNull(cache.get(INSTALLED));
+    }
+
+    @Test
+    public void leftoversOfThePinnedBuildsAreKept() throws Exception {
+        File part = leftover(LATEST, ResumableDownload.PART_SUFFIX);
+        File meta = leftover(LATEST, ResumableDownload.META_SUFFIX);
+        File stale = leftover(OLD, ResumableDownload.PART_SUFFIX);
+
+        cache.trim(INSTALLED, LATEST);
+        assertTrue(part.exists());
+        assertTrue(meta.exists());
+        assertFalse(stale.exists());
+
+        cache.trim(INSTALLED);
+        assertFalse(part.exists());
+        assertFalse(meta.exists());
+    }
+
+    /**Downloads the apk of the build into the cache*/
+    private void add(BuildDate build, BuildDate... pinned) throws IOException, InterruptedException {
+        write(cache.fileFor(build));
+        //the access times have a millisecond resolution
+        Thread.sleep(5);
+        cache.put(build, pinned);
+        Thread.sleep(5);
+    }
+
+    private File leftover(BuildDate build, String suffix) throws IOException {
+        File file = new File(cache.fileFor(build).getPath() + suffix);
+        write(file);
+        return file;
+    }
+
+    private static void write(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[SIZE]);
+        } finally {
+            out.close();
+        }
+    }
+}
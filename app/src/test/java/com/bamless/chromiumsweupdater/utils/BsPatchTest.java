@@ -0,0 +1,181 @@
+package com.bamless.chromiumsweupdater.utils;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+public class BsPatchTest {
+    /**A patch of old.txt into new.txt, exercising diffs, extras and forward and backward seeks*/
+    private final static String FIXTURES = "/bspatch/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appliesPatch() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BsPatch.apply(fixture("old.txt"), fixture("patch.bsdiff"), out);
+        assertArrayEquals(read(fixture("new.txt")), out.toByteArray());
+    }
+
+    @Test
+    public void appliesPatchBuiltHere() throws Exception {
+        //replaces the second byte and appends one
+        byte[] patch = patch(3, new long[] {2, 1, 0}, new byte[] {0, 1}, new byte[] {'!'});
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BsPatch.apply(write("old", "ab".getBytes("US-ASCII")), write("patch", patch), out);
+        assertArrayEquals("ac!".getBytes("US-ASCII"), out.toByteArray());
+    }
+
+    @Test
+    public void rejectsBadMagic() throws Exception {
+        byte[] patch = read(fixture("patch.bsdiff"));
+        patch[7] = '1';
+        assertCorrupt(patch);
+    }
+
+    @Test
+    public void rejectsNegativeLengthsInTheHeader() throws Exception {
+        for(int field = 8; field < 32; field += 8) {
+            byte[] patch = read(fixture("patch.bsdiff"));
+            patch[field + 7] |= 0x80;
+            assertCorrupt(patch);
+        }
+    }
+
+    @Test
+    public void rejectsBlocksPastTheEndOfThePatch() throws Exception {
+        byte[] patch = read(fixture("patch.bsdiff"));
+        //control block length
+        patch[9] = 0x7f;
+        assertCorrupt(patch);
+    }
+
+    @Test
+    public void rejectsTruncatedPatch() throws Exception {
+        byte[] patch = read(fixture("patch.bsdiff"));
+        byte[] truncated = new byte[patch.length - 8];
+        System.arraycopy(patch, 0, truncated, 0, truncated.length);
+        assertCorrupt(truncated);
+    }
+
+    @Test
+    public void rejectsAddPastTheNewSize() throws Exception {
+        assertCorrupt(patch(2, new long[] {3, 0, 0}, new byte[3], new byte[0]));
+    }
+
+    @Test
+    public void rejectsCopyPastTheNewSize() throws Exception {
+        assertCorrupt(patch(2, new long[] {0, 3, 0}, new byte[0], new byte[3]));
+    }
+
+    @Test
+    public void rejectsNegativeAddOrCopy() throws Exception {
+        assertCorrupt(patch(2, new long[] {-1, 3, 0}, new byte[0], new byte[3]));
+        assertCorrupt(patch(2, new long[] {3, -1, 0}, new byte[3], new byte[0]));
+    }
+
+    @Test
+    public void rejectsDiffShorterThanTheAdd() throws Exception {
+        assertCorrupt(patch(2, new long[] {2, 0, 0}, new byte[1], new byte[0]));
+    }
+
+    @Test
+    public void rejectsControlShorterThanTheNewSize() throws Exception {
+        assertCorrupt(patch(4, new long[] {2, 0, 0}, new byte[2], new byte[0]));
+    }
+
+    @Test
+    public void rejectsUnusedData() throws Exception {
+        assertCorrupt(patch(2, new long[] {2, 0, 0, 1, 0, 0}, new byte[2], new byte[0]));
+        assertCorrupt(patch(2, new long[] {2, 0, 0}, new byte[3], new byte[0]));
+        assertCorrupt(patch(2, new long[] {2, 0, 0}, new byte[2], new byte[1]));
+    }
+
+    private void assertCorrupt(byte[] patch) throws IOException, URISyntaxException {
+        try {
+            BsPatch.apply(fixture("old.txt"), write("patch", patch), new ByteArrayOutputStream());
+            fail("The patch should be rejected");
+        } catch(IOException expected) {
+        }
+    }
+
+    /**
+     * @param ctrl the control block, as add, copy, seek triplets
+     * @return a bsdiff 4.x patch made of the given blocks
+     */
+    private static byte[] patch(long newSize, long[] ctrl, byte[] diff, byte[] extra) throws IOException {
+        ByteArrayOutputStream ctrlBlock = new ByteArrayOutputStream();
+        for(long value : ctrl) ctrlBlock.write(offtout(value));
+        byte[] ctrlCompressed = bzip2(ctrlBlock.toByteArray());
+        byte[] diffCompressed = bzip2(diff);
+
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        patch.write("BSDIFF40".getBytes("US-ASCII"));
+        patch.write(offtout(ctrlCompressed.length));
+        patch.write(offtout(diffCompressed.length));
+        patch.write(offtout(newSize));
+        patch.write(ctrlCompressed);
+        patch.write(diffCompressed);
+        patch.write(bzip2(extra));
+        return patch.toByteArray();
+    }
+
+    /**Encodes the sign-magnitude little endian integers used by bsdiff*/
+    private static byte[] offtout(long value) {
+        byte[] buf = new byte[8];
+        long magnitude = Math.abs(value);
+        for(int i = 0; i < 8; i++)
+            buf[i] = (byte) (magnitude >>> (8 * i));
+        if(value < 0) buf[7] |= 0x80;
+        return buf;
+    }
+
+    private static byte[] bzip2(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BZip2CompressorOutputStream bzip2 = new BZip2CompressorOutputStream(out);
+        bzip2.write(data);
+        bzip2.close();
+        return out.toByteArray();
+    }
+
+    private File fixture(String name) throws URISyntaxException {
+        return new File(getClass().getResource(FIXTURES + name).toURI());
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.bamless.chromiumsweupdater.utils;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.Context;
+
+import com.bamless.chromiumsweupdater.models.UpdateStateStore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class UpdateSchedulerTest {
+    /**Delay of the first retry, with its max jitter*/
+    private final static long MAX_RETRY_DELAY = 15 * 60 * 1000L * 5 / 4;
+
+    private Context context;
+
+    @Before
+    public void setUp() throws Exception {
+        //the store is process wide, start from an empty one
+        Field instance = UpdateStateStore.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, null);
+        context = RuntimeEnvironment.application;
+    }
+
+    @Test
+    public void startedCheckArmsARetry() {
+        UpdateScheduler.ensureScheduled(context);
+        assertTrue(pendingDelay() >= Constants.DAY_INTERVAL);
+
+        //the retry runs if the process dies before the check completes
+        UpdateScheduler.onCheckStarted(context);
+        assertTrue(pendingDelay() <= MAX_RETRY_DELAY);
+
+        UpdateScheduler.onCheckSucceeded(context);
+        assertTrue(pendingDelay() >= Constants.DAY_INTERVAL);
+    }
+
+    @Test
+    public void startedCheckKeepsTheBackoff() {
+        UpdateScheduler.onCheckStarted(context);
+        UpdateScheduler.onCheckFailed(context);
+        UpdateScheduler.onCheckStarted(context);
+        long delay = pendingDelay();
+        assertTrue(delay > MAX_RETRY_DELAY && delay <= 2 * MAX_RETRY_DELAY);
+    }
+
+    /**@return the delay of the only pending check*/
+    private long pendingDelay() {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        List<JobInfo> jobs = scheduler.getAllPendingJobs();
+        assertEquals(1, jobs.size());
+        return jobs.get(0).getMinLatencyMillis();
+    }
+}
@@ -0,0 +1,134 @@
+package com.bamless.chromiumsweupdater.benchmarks;
+
+import com.bamless.chromiumsweupdater.install.ApkValidator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compares the memory mapped {@link ApkValidator} with the validation of the same APK through
+ * {@link ZipFile}, which reads and indexes the whole central directory before the manifest can
+ * be read. The APK stays in the page cache, so neither includes the cost of reading it from disk. The test APK has a binary manifest and as many entries as a large app, whose content is
+ * random (stored, like the native libraries of an APK) to reach the given size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ApkValidatorBenchmark {
+    @Param({"4000"})
+    public int entries;
+
+    @Param({"67108864"})
+    public int size;
+
+    private File apk;
+
+    @Setup
+    public void setup() throws IOException {
+        apk = File.createTempFile("validator", ".apk");
+        Random random = new Random(0);
+        byte[] data = new byte[size / entries];
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(apk));
+        try {
+            zip.putNextEntry(new ZipEntry(ApkValidator.MANIFEST_ENTRY));
+            zip.write(manifest("com.bamless.benchmark", 42));
+            zip.closeEntry();
+            zip.setMethod(ZipOutputStream.STORED);
+            for(int i = 0; i < entries; i++) {
+                random.nextBytes(data);
+                ZipEntry entry = new ZipEntry("res/raw/entry" + i);
+                entry.setSize(data.length);
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                entry.setCrc(crc.getValue());
+                zip.putNextEntry(entry);
+                zip.write(data);
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        apk.delete();
+    }
+
+    @Benchmark
+    public ApkValidator.ApkInfo mappedValidator() throws IOException {
+        return ApkValidator.validate(apk);
+    }
+
+    @Benchmark
+    public ApkValidator.ApkInfo zipFile() throws IOException {
+        ZipFile zip = new ZipFile(apk);
+        try {
+            ZipEntry entry = zip.getEntry(ApkValidator.MANIFEST_ENTRY);
+            InputStream in = zip.getInputStream(entry);
+            ByteArrayOutputStream manifest = new ByteArrayOutputStream((int) entry.getSize());
+            byte[] buffer = new byte[8192];
+            for(int read; (read = in.read(buffer)) != -1; )
+                manifest.write(buffer, 0, read);
+            return ApkValidator.parseManifest(manifest.toByteArray());
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**Encodes a minimal binary manifest: a manifest tag with the package and versionCode attributes*/
+    static byte[] manifest(String packageName, int versionCode) {
+        String[] strings = {"manifest", "package", "versionCode", packageName};
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        int[] offsets = new int[strings.length];
+        for(int i = 0; i < strings.length; i++) {
+            offsets[i] = pool.size();
+            ByteBuffer string = ByteBuffer.allocate(4 + strings[i].length() * 2).order(ByteOrder.LITTLE_ENDIAN);
+            string.putShort((short) strings[i].length());
+            for(char c : strings[i].toCharArray()) string.putChar(c);
+            string.putShort((short) 0);
+            pool.write(string.array(), 0, string.capacity());
+        }
+        while(pool.size() % 4 != 0) pool.write(0);
+
+        int poolHeader = 28;
+        int poolSize = poolHeader + strings.length * 4 + pool.size();
+        int elementSize = 16 + 20 + 2 * 20;
+        ByteBuffer xml = ByteBuffer.allocate(8 + poolSize + elementSize).order(ByteOrder.LITTLE_ENDIAN);
+        xml.putShort((short) 0x0003).putShort((short) 8).putInt(xml.capacity());
+
+        xml.putShort((short) 0x0001).putShort((short) poolHeader).putInt(poolSize)
+                .putInt(strings.length).putInt(0).putInt(0)
+                .putInt(poolHeader + strings.length * 4).putInt(0);
+        for(int offset : offsets) xml.putInt(offset);
+        xml.put(pool.toByteArray());
+
+        xml.putShort((short) 0x0102).putShort((short) 16).putInt(elementSize).putInt(1).putInt(-1);
+        xml.putInt(-1).putInt(0).putShort((short) 20).putShort((short) 20).putShort((short) 2)
+                .putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        xml.putInt(-1).putInt(1).putInt(3).putShort((short) 8).put((byte) 0).put((byte) 0x03).putInt(3);
+        xml.putInt(-1).putInt(2).putInt(-1).putShort((short) 8).put((byte) 0).put((byte) 0x10).putInt(versionCode);
+        return xml.array();
+    }
+}
@@ -0,0 +1,52 @@
+package com.bamless.chromiumsweupdater.benchmarks;
+
+import com.bamless.chromiumsweupdater.models.BuildDate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link BuildDate} parsing, comparison and formatting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BuildDateBenchmark {
+    private String buildTime = "02/05/2017 11:32:56";
+    private BuildDate installed;
+    private BuildDate latest;
+
+    @Setup
+    public void setup() {
+        installed = BuildDate.parseBuildTime("28/04/2017 09:12:01");
+        latest = BuildDate.parseBuildTime(buildTime);
+    }
+
+    @Benchmark
+    public BuildDate parse() {
+        return BuildDate.parseBuildTime(buildTime);
+    }
+
+    @Benchmark
+    public int compare() {
+        return installed.compareTo(latest);
+    }
+
+    /**Formats a new instance each time, otherwise the cached string would be measured*/
+    @Benchmark
+    public String format() {
+        return new BuildDate(2, 5, 2017, 11, 32, 56).toString();
+    }
+
+    @Benchmark
+    public String dateToString() {
+        return latest.dateToString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.bamless.chromiumsweupdater.benchmarks;
+
+import com.bamless.chromiumsweupdater.network.ChannelWriter;
+import com.bamless.chromiumsweupdater.network.ProgressResponseBody;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * Compares the old download path (the body copied through a buffered Okio file sink) with the
+ * {@link ChannelWriter} one (the body written straight into a preallocated file channel). Run
+ * with -prof gc to compare the allocation rates as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DownloadPathBenchmark {
+    @Param({"67108864"})
+    public int size;
+
+    private Payload payload;
+    private File out;
+
+    @Setup
+    public void setup() throws IOException {
+        payload = new Payload(size);
+        out = File.createTempFile("download", ".apk");
+    }
+
+    @TearDown
+    public void tearDown() {
+        out.delete();
+    }
+
+    private ResponseBody body() {
+        return new ProgressResponseBody(payload.body(), null);
+    }
+
+    @Benchmark
+    public long okioSink() throws IOException {
+        BufferedSink sink = Okio.buffer(Okio.sink(out));
+        try {
+            return sink.writeAll(body().source());
+        } finally {
+            sink.close();
+        }
+    }
+
+    @Benchmark
+    public long channelWriter() throws IOException {
+        ResponseBody body = body();
+        RandomAccessFile raf = new RandomAccessFile(out, "rw");
+        try {
+            raf.setLength(body.contentLength());
+            return new ChannelWriter(raf.getChannel(), 0).writeAll(body.source(), null);
+        } finally {
+            raf.close();
+        }
+    }
+}
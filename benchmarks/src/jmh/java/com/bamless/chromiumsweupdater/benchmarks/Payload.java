@@ -0,0 +1,34 @@
+package com.bamless.chromiumsweupdater.benchmarks;
+
+import java.util.Random;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+/**
+ * Random content read by the benchmarks of the download path, replayed on every invocation.
+ * The replays are clones of the content, which share its segments instead of copying them, so
+ * that the copy isn't part of the measure.
+ */
+class Payload {
+    private final static MediaType APK = MediaType.parse("application/vnd.android.package-archive");
+
+    private final Buffer content;
+
+    Payload(int size) {
+        byte[] data = new byte[size];
+        new Random(0).nextBytes(data);
+        content = new Buffer().write(data);
+    }
+
+    /**@return a new source of the content*/
+    Buffer source() {
+        return content.clone();
+    }
+
+    /**@return a new apk response body with the content*/
+    ResponseBody body() {
+        return ResponseBody.create(APK, content.size(), source());
+    }
+}
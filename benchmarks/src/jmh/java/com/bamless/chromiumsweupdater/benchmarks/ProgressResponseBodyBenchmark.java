@@ -0,0 +1,57 @@
+package com.bamless.chromiumsweupdater.benchmarks;
+
+import com.bamless.chromiumsweupdater.network.ProgressResponseBody;
+import com.bamless.chromiumsweupdater.network.ProgressSampler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+/**
+ * Read throughput of {@link ProgressResponseBody} over an in-memory body, with and without a
+ * {@link ProgressSampler} attached. The sampler isn't started: only the cost paid on the reading
+ * thread is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProgressResponseBodyBenchmark {
+    @Param({"8388608"})
+    public int size;
+    @Param({"true", "false"})
+    public boolean withSampler;
+
+    private Payload payload;
+    private ProgressSampler sampler;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        payload = new Payload(size);
+        if(withSampler) {
+            sampler = new ProgressSampler(new ProgressSampler.Listener() {
+                @Override
+                public void onProgress(ProgressSampler.Snapshot progress) {
+                    blackhole.consume(progress);
+                }
+            }, ProgressSampler.DEFAULT_INTERVAL);
+        }
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        ResponseBody body = new ProgressResponseBody(payload.body(), sampler);
+        return body.source().readAll(Okio.blackhole());
+    }
+}
@@ -0,0 +1,50 @@
+package com.bamless.chromiumsweupdater.benchmarks;
+
+import com.bamless.chromiumsweupdater.network.BandwidthThrottle;
+import com.bamless.chromiumsweupdater.network.ThrottledSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Overhead of {@link ThrottledSource} with an unlimited {@link BandwidthThrottle}, which is how
+ * every download is read unless a rate is set, against the plain source.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ThrottledSourceBenchmark {
+    @Param({"8388608"})
+    public int size;
+    @Param({"true", "false"})
+    public boolean throttled;
+
+    private Payload payload;
+    private BandwidthThrottle throttle;
+
+    @Setup
+    public void setup() {
+        payload = new Payload(size);
+        throttle = new BandwidthThrottle(BandwidthThrottle.UNLIMITED);
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        Source source = payload.source();
+        BufferedSource buffered = Okio.buffer(throttled ? new ThrottledSource(source, throttle) : source);
+        return buffered.readAll(Okio.blackhole());
+    }
+}
@@ -0,0 +1,33 @@
+package com.bamless.chromiumsweupdater.benchmarks;
+
+import com.bamless.chromiumsweupdater.utils.UnitFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of formatting the download rate and the remaining time shown by the progress notification.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UnitFormatterBenchmark {
+    private float rate = 1.5f * 1024 * 1024;
+    private int seconds = 137;
+
+    @Benchmark
+    public String formatDownloadRate() {
+        return UnitFormatter.formatDownloadRate(rate);
+    }
+
+    @Benchmark
+    public String formatSeconds() {
+        return UnitFormatter.formatSeconds(seconds);
+    }
+}